@@ -5,6 +5,7 @@ import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
@@ -29,6 +30,7 @@ public final class BaseConfig {
 
     static {
         instance.calcCommonPath();
+        instance.checkMaxCompilationUnitsInFlight();
     }
 
     /**
@@ -41,6 +43,43 @@ public final class BaseConfig {
      */
     private Collection<String> projectPaths;
 
+    /**
+     * AstForest同时持有的CompilationUnit对象的上限，指定后每个SourceRoot下的源码文件将分批解析，
+     * 不填或不是正数则每个SourceRoot下的源码文件一次性解析
+     */
+    private Integer maxCompilationUnitsInFlight;
+
+    /**
+     * 并行遍历AstForest时的线程数，不填则单线程遍历
+     */
+    private Integer astForestParallelism;
+
+    /**
+     * 解析类型时，除了ClassLoader和源码以外，额外使用的jar的路径
+     */
+    private Collection<String> typeSolverJarPaths;
+
+    /**
+     * 类型解析结果缓存的最大个数，不填则为10000
+     */
+    private Long typeSolverMemoSize;
+
+    /**
+     * 每个模块的源码文件选择规则，key是模块相对于commonPart的路径，key为default的规则适用于所有模块，
+     * 无论是否填写，都会排除所有模块的src/test/**，除非规则的excludeTestSources为false
+     */
+    private Map<String, SourceSelection> sourceSelections;
+
+    /**
+     * 是否排除生成的源码文件，不填则排除
+     */
+    private Boolean pruneGeneratedSources;
+
+    /**
+     * CompilationUnit快照的目录，指定后未变动的源码文件从快照还原，无需解析，不填则不使用快照
+     */
+    private String astSnapshotPath;
+
     /**
      * 所有projectPaths的公有部分
      */
@@ -50,6 +89,23 @@ public final class BaseConfig {
     private BaseConfig() {
     }
 
+    /**
+     * 源码文件选择规则，glob匹配的是源码文件相对于模块的路径
+     */
+    @Data
+    public static class SourceSelection {
+
+        private Collection<String> includes;
+
+        private Collection<String> excludes;
+
+        /**
+         * 是否排除src/test/**，不填则沿用default规则的值，default规则也未填写时排除
+         */
+        private Boolean excludeTestSources;
+
+    }
+
     private void calcCommonPath() {
         List<String> paths = Lists.newArrayList(projectPaths);
         String common = paths.get(0);
@@ -59,4 +115,12 @@ public final class BaseConfig {
         commonPart = Paths.get(common);
     }
 
+    private void checkMaxCompilationUnitsInFlight() {
+        if (maxCompilationUnitsInFlight != null && maxCompilationUnitsInFlight <= 0) {
+            log.warn("maxCompilationUnitsInFlight必须是正数，当前值[{}]将被忽略，每个SourceRoot下的源码文件一次性解析",
+                    maxCompilationUnitsInFlight);
+            maxCompilationUnitsInFlight = null;
+        }
+    }
+
 }
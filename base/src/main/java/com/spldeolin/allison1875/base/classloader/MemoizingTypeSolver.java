@@ -0,0 +1,49 @@
+package com.spldeolin.allison1875.base.classloader;
+
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.github.javaparser.symbolsolver.model.resolution.TypeSolver;
+
+/**
+ * 先查询TypeSolverMemo，未命中时才委托给delegate解析的TypeSolver
+ *
+ * delegate的parent是这个对象，所以delegate解析出的声明在进一步解析父类、泛型等类型时，同样会经过TypeSolverMemo
+ * 解析出的声明持有delegate以及它内部不是线程安全的缓存，所以这个对象与它的TypeSolverMemo只能由一个线程使用
+ *
+ * @author Deolin 2020-08-17
+ */
+class MemoizingTypeSolver implements TypeSolver {
+
+    private final TypeSolver delegate;
+
+    private final TypeSolverMemo memo;
+
+    private TypeSolver parent;
+
+    MemoizingTypeSolver(TypeSolver delegate, TypeSolverMemo memo) {
+        this.delegate = delegate;
+        this.memo = memo;
+        delegate.setParent(this);
+    }
+
+    @Override
+    public TypeSolver getParent() {
+        return parent;
+    }
+
+    @Override
+    public void setParent(TypeSolver parent) {
+        this.parent = parent;
+    }
+
+    @Override
+    public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+        SymbolReference<ResolvedReferenceTypeDeclaration> result = memo.get(name);
+        if (result == null) {
+            result = delegate.tryToSolveType(name);
+            memo.put(name, result);
+        }
+        return result;
+    }
+
+}
@@ -1,19 +1,113 @@
 package com.spldeolin.allison1875.base.classloader;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import com.github.javaparser.symbolsolver.JavaSymbolSolver;
 import com.github.javaparser.symbolsolver.resolution.typesolvers.ClassLoaderTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.JarTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
+import com.google.common.collect.ImmutableSet;
+import com.spldeolin.allison1875.base.BaseConfig;
+import lombok.extern.log4j.Log4j2;
 
 /**
  * 为module提供com.github.javaparser.symbolsolver.JavaSymbolSolver 对象的工厂
  *
+ * <pre>
+ * JavaSymbolSolver依次通过ClassLoader、typeSolverJarPaths中的jar、AstForest的每个SourceRoot解析类型，
+ * 解析结果缓存在JavaSymbolSolver专属的TypeSolverMemo中
+ * JavaSymbolSolver内部的缓存不是线程安全的，解析出的声明也持有所属的TypeSolver与它们的缓存，
+ * 所以每个线程使用各自的JavaSymbolSolver对象与TypeSolverMemo，线程之间不共享解析结果，报告时汇总所有线程的计数
+ * </pre>
+ *
  * @author Deolin 2020-05-02
  */
+@Log4j2
 public class ModuleJavaSymbolSolverFactory {
 
+    private static final long DEFAULT_MEMO_SIZE = 10000;
+
+    /**
+     * 所有线程的TypeSolverMemo，用于汇总计数
+     */
+    private static final Collection<TypeSolverMemo> memos = new ConcurrentLinkedQueue<>();
+
+    private static volatile Collection<Path> sourceRootPaths = Collections.emptySet();
+
+    private static volatile ThreadLocal<JavaSymbolSolver> threadLocalSymbolSolver = newThreadLocal();
+
+    /**
+     * 登记AstForest的所有SourceRoot，SourceRoot发生变化时，之前的JavaSymbolSolver对象和缓存将被废弃
+     */
+    public static synchronized void registerSourceRoots(Collection<Path> sourceRootPaths) {
+        ImmutableSet<Path> paths = ImmutableSet.copyOf(sourceRootPaths);
+        if (paths.equals(ModuleJavaSymbolSolverFactory.sourceRootPaths)) {
+            return;
+        }
+        ModuleJavaSymbolSolverFactory.sourceRootPaths = paths;
+        // 被废弃的JavaSymbolSolver不再使用，只保留计数
+        memos.forEach(TypeSolverMemo::invalidateAll);
+        threadLocalSymbolSolver = newThreadLocal();
+    }
+
+    /**
+     * 获取当前线程专属的JavaSymbolSolver对象
+     */
     public static JavaSymbolSolver getJavaSymbolSolver() {
-        ClassLoaderTypeSolver classLoaderTypeSolver = new ClassLoaderTypeSolver(
-                ModuleJavaSymbolSolverFactory.class.getClassLoader());
-        return new JavaSymbolSolver(classLoaderTypeSolver);
+        return threadLocalSymbolSolver.get();
+    }
+
+    /**
+     * 汇总所有线程的TypeSolverMemo的计数
+     */
+    public static void reportMemo() {
+        long hit = 0;
+        long miss = 0;
+        long size = 0;
+        for (TypeSolverMemo memo : memos) {
+            hit += memo.getHitCount();
+            miss += memo.getMissCount();
+            size += memo.size();
+        }
+        log.info("TypeSolver memo. [hit={} miss={} hitRate={}% size={} threads={}]", hit, miss,
+                hit + miss == 0 ? 0 : hit * 100 / (hit + miss), size, memos.size());
+    }
+
+    private static ThreadLocal<JavaSymbolSolver> newThreadLocal() {
+        return ThreadLocal.withInitial(ModuleJavaSymbolSolverFactory::createJavaSymbolSolver);
+    }
+
+    private static JavaSymbolSolver createJavaSymbolSolver() {
+        CombinedTypeSolver combinedTypeSolver = new CombinedTypeSolver();
+        combinedTypeSolver.add(new ClassLoaderTypeSolver(ModuleJavaSymbolSolverFactory.class.getClassLoader()));
+
+        Collection<String> jarPaths = BaseConfig.getInstance().getTypeSolverJarPaths();
+        if (jarPaths != null) {
+            for (String jarPath : jarPaths) {
+                try {
+                    combinedTypeSolver.add(new JarTypeSolver(Paths.get(jarPath)));
+                } catch (IOException e) {
+                    log.warn("jar [{}] cannot be used by TypeSolver", jarPath, e);
+                }
+            }
+        }
+
+        for (Path sourceRootPath : sourceRootPaths) {
+            combinedTypeSolver.add(new JavaParserTypeSolver(sourceRootPath));
+        }
+        TypeSolverMemo memo = new TypeSolverMemo(getMemoSize());
+        memos.add(memo);
+        return new JavaSymbolSolver(new MemoizingTypeSolver(combinedTypeSolver, memo));
+    }
+
+    private static long getMemoSize() {
+        Long memoSize = BaseConfig.getInstance().getTypeSolverMemoSize();
+        return memoSize == null ? DEFAULT_MEMO_SIZE : memoSize;
     }
 
 }
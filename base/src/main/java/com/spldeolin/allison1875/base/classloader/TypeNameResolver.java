@@ -0,0 +1,159 @@
+package com.spldeolin.allison1875.base.classloader;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 将源码风格的类型名（内部类以.分隔）转化为二进制名（内部类以$分隔），不通过抛出和捕获异常来试探
+ *
+ * <pre>
+ * 1. 源码中声明的类型由registerSourceTypes登记，它们的二进制名根据类型之间的嵌套关系直接推算
+ * 2. 其他类型在classpath中查找.class资源，依次尝试将最后一个、最后两个…….替换为$
+ * 3. 查找结果按ClassLoader缓存，找不到的类型名同样被缓存，不会重复查找
+ * </pre>
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+public class TypeNameResolver {
+
+    private static final Pattern QUALIFIER = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+
+    private static final Map<ClassLoader, TypeNameResolver> instances = Maps.newConcurrentMap();
+
+    /**
+     * bootstrap类加载器（以null表示）对应的实例，ConcurrentHashMap不能以null作为key，所以单独持有
+     */
+    private static final TypeNameResolver bootstrapInstance = new TypeNameResolver(null);
+
+    /**
+     * 源码中声明的所有类型的全限定名，以.分隔内部类
+     */
+    private static final Set<String> sourceTypes = Sets.newConcurrentHashSet();
+
+    private final ClassLoader classLoader;
+
+    private final Map<String, String> binaryNames = Maps.newConcurrentMap();
+
+    private final Set<String> absentNames = Sets.newConcurrentHashSet();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private TypeNameResolver(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public static TypeNameResolver getInstance() {
+        return of(TypeNameResolver.class.getClassLoader());
+    }
+
+    /**
+     * @param classLoader 为null时代表bootstrap类加载器
+     */
+    public static TypeNameResolver of(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return bootstrapInstance;
+        }
+        return instances.computeIfAbsent(classLoader, TypeNameResolver::new);
+    }
+
+    /**
+     * 登记源码中声明的类型，可以被多个线程同时调用
+     */
+    public static void registerSourceTypes(Collection<String> qualifiers) {
+        sourceTypes.addAll(qualifiers);
+    }
+
+    /**
+     * 获取类型名对应的二进制名，找不到时返回empty
+     */
+    public Optional<String> resolve(String name) {
+        String binaryName = binaryNames.get(name);
+        if (binaryName != null) {
+            hitCount.incrementAndGet();
+            return Optional.of(binaryName);
+        }
+        if (absentNames.contains(name)) {
+            hitCount.incrementAndGet();
+            return Optional.empty();
+        }
+        missCount.incrementAndGet();
+
+        binaryName = sourceTypes.contains(name) ? toBinaryNameBySource(name) : findInClassPath(name);
+        if (binaryName == null) {
+            absentNames.add(name);
+            return Optional.empty();
+        }
+        binaryNames.put(name, binaryName);
+        return Optional.of(binaryName);
+    }
+
+    /**
+     * 将describe（可以含有泛型、数组）中的每个类型名替换为二进制名，找不到的类型名保持原样
+     */
+    public String resolveDescribe(String describe) {
+        Matcher matcher = QUALIFIER.matcher(describe);
+        StringBuffer sb = new StringBuffer(describe.length());
+        while (matcher.find()) {
+            String name = matcher.group();
+            matcher.appendReplacement(sb, Matcher.quoteReplacement(resolve(name).orElse(name)));
+        }
+        matcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    public void report() {
+        long hit = hitCount.get();
+        long miss = missCount.get();
+        log.info("TypeNameResolver. [hit={} miss={} hitRate={}% absent={}]", hit, miss,
+                hit + miss == 0 ? 0 : hit * 100 / (hit + miss), absentNames.size());
+    }
+
+    /**
+     * 外层类型同样在源码中声明时，name是它的内部类
+     */
+    private String toBinaryNameBySource(String name) {
+        int lastDotIndex = name.lastIndexOf('.');
+        if (lastDotIndex == -1) {
+            return name;
+        }
+        String outer = name.substring(0, lastDotIndex);
+        if (!sourceTypes.contains(outer)) {
+            return name;
+        }
+        return toBinaryNameBySource(outer) + '$' + name.substring(lastDotIndex + 1);
+    }
+
+    /**
+     * 与Class.getResource一致，bootstrap类加载器通过系统类加载器查找资源
+     */
+    private URL findResource(String name) {
+        return classLoader == null ? ClassLoader.getSystemResource(name) : classLoader.getResource(name);
+    }
+
+    private String findInClassPath(String name) {
+        String candidate = name;
+        while (true) {
+            if (findResource(candidate.replace('.', '/') + ".class") != null) {
+                return candidate;
+            }
+            int lastDotIndex = candidate.lastIndexOf('.');
+            if (lastDotIndex == -1) {
+                return null;
+            }
+            candidate = candidate.substring(0, lastDotIndex) + '$' + candidate.substring(lastDotIndex + 1);
+        }
+    }
+
+}
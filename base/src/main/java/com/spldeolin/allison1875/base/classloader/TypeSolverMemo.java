@@ -0,0 +1,58 @@
+package com.spldeolin.allison1875.base.classloader;
+
+import java.util.concurrent.atomic.AtomicLong;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.symbolsolver.model.resolution.SymbolReference;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 类型名与解析结果的有界缓存，解析失败的结果也会被缓存
+ *
+ * 只由一个线程的MemoizingTypeSolver读写，计数可以被其他线程读取
+ *
+ * @author Deolin 2020-08-17
+ */
+class TypeSolverMemo {
+
+    private final Cache<String, SymbolReference<ResolvedReferenceTypeDeclaration>> cache;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    TypeSolverMemo(long maximumSize) {
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    SymbolReference<ResolvedReferenceTypeDeclaration> get(String name) {
+        SymbolReference<ResolvedReferenceTypeDeclaration> result = cache.getIfPresent(name);
+        if (result == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    void put(String name, SymbolReference<ResolvedReferenceTypeDeclaration> symbolReference) {
+        cache.put(name, symbolReference);
+    }
+
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    long size() {
+        return cache.size();
+    }
+
+}
@@ -1,15 +1,27 @@
 package com.spldeolin.allison1875.base.collection.ast;
 
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.utils.SourceRoot;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import lombok.extern.log4j.Log4j2;
 
 /**
  * 抽象语法树迭代子
  *
+ * <pre>
+ * maxCusInFlight为null时，每个sourceRoot一次性解析完毕后再逐个返回
+ * maxCusInFlight不为null时，每个sourceRoot下的源码文件分批解析，每批最多maxCusInFlight个，
+ * 上一批的cu全部返回后才会解析下一批
+ * 两种方式下，cu被返回后都不再被迭代子引用
+ * </pre>
+ *
  * @author Deolin 2020-04-23
  */
 @Log4j2
@@ -17,16 +29,33 @@ class AstCursor implements Iterator<CompilationUnit> {
 
     private final Iterator<SourceRoot> sourceRootItr;
 
+    private final Set<Path> targetFiles;
+
+    private final Integer maxCusInFlight;
+
+    private final CompilationUnitCollector collector = new CompilationUnitCollector();
+
+    private SourceRoot sourceRoot;
+
+    private Iterator<List<Path>> batchItr = Collections.emptyIterator();
+
     private Iterator<CompilationUnit> cuItr = Collections.emptyIterator();
 
-    AstCursor(Collection<SourceRoot> sourceRoots) {
+    AstCursor(Collection<SourceRoot> sourceRoots, Set<Path> targetFiles, Integer maxCusInFlight) {
         sourceRootItr = sourceRoots.iterator();
+        this.targetFiles = targetFiles;
+        this.maxCusInFlight = maxCusInFlight;
     }
 
     @Override
     public boolean hasNext() {
         if (cuItr.hasNext()) {
             return true;
+        } else if (batchItr.hasNext()) {
+            // cus没有了，当前sourceRoot还有未解析的源码文件 -> 解析下一批
+            cuItr = consuming(collector.collectBatch(sourceRoot, batchItr.next()));
+            // 递归的目的是这一批源码可能都解析失败了
+            return hasNext();
         } else if (sourceRootItr.hasNext()) {
             // cus没有了，sourceRoots还有 -> 清空cus，tryToParse下一个sourceRoot，重新收集cus
 
@@ -36,9 +65,17 @@ class AstCursor implements Iterator<CompilationUnit> {
             } catch (Exception ignored) {
             }
 
-            SourceRoot sourceRoot = sourceRootItr.next();
-            Collection<CompilationUnit> cus = new CompilationUnitCollector().collect(sourceRoot);
-            cuItr = cus.iterator();
+            sourceRoot = sourceRootItr.next();
+            if (maxCusInFlight == null) {
+                cuItr = consuming(collector.collect(sourceRoot, targetFiles));
+            } else {
+                List<Path> sourceFiles = collector.listSourceFiles(sourceRoot, targetFiles);
+                if (sourceFiles.size() > 0) {
+                    log.info("{} source files at {} will be parsed in batches of {}", sourceFiles.size(),
+                            sourceRoot.getRoot(), maxCusInFlight);
+                }
+                batchItr = Lists.partition(sourceFiles, maxCusInFlight).iterator();
+            }
             // 递归的目的是这个sourceRoot可能没源码
             return hasNext();
         } else {
@@ -52,4 +89,11 @@ class AstCursor implements Iterator<CompilationUnit> {
         return cuItr.next();
     }
 
+    /**
+     * 返回后即移除，使迭代子不再引用已返回的cu
+     */
+    private Iterator<CompilationUnit> consuming(Collection<CompilationUnit> cus) {
+        return Iterators.consumingIterator(Lists.newLinkedList(cus).iterator());
+    }
+
 }
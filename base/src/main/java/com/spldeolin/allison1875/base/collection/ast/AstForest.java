@@ -2,12 +2,26 @@ package com.spldeolin.allison1875.base.collection.ast;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.utils.SourceRoot;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.spldeolin.allison1875.base.BaseConfig;
+import com.spldeolin.allison1875.base.classloader.ModuleJavaSymbolSolverFactory;
+import com.spldeolin.allison1875.base.collection.ast.AstSpliterator.SourceFile;
 import lombok.extern.log4j.Log4j2;
 
 /**
@@ -18,13 +32,21 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 public class AstForest implements Iterable<CompilationUnit> {
 
-    private static final AstForest instance = new AstForest(stringToPath(BaseConfig.getInstance().getProjectPaths()));
+    private static final AstForest instance = new AstForest();
 
     private AstCursor cursor;
 
-    private AstForest(Collection<Path> projectPaths) {
-        Collection<SourceRoot> sourceRoots = new SourceRootCollector().collect(projectPaths);
-        this.cursor = new AstCursor(sourceRoots);
+    /**
+     * 为null时解析所有源码文件
+     */
+    private Set<Path> targetFiles;
+
+    private volatile Collection<Path> sourceRootPaths;
+
+    private volatile Collection<SourceRoot> sourceRoots;
+
+    private AstForest() {
+        this.cursor = newCursor();
     }
 
     private static Collection<Path> stringToPath(Collection<String> paths) {
@@ -40,12 +62,134 @@ public class AstForest implements Iterable<CompilationUnit> {
         return cursor;
     }
 
+    /**
+     * 列出之后的遍历会解析的所有源码文件
+     */
+    public List<Path> listSourceFiles() {
+        List<Path> result = Lists.newArrayList();
+        CompilationUnitCollector collector = new CompilationUnitCollector();
+        for (SourceRoot sourceRoot : collectSourceRoots()) {
+            result.addAll(collector.listSourceFiles(sourceRoot, targetFiles));
+        }
+        return result;
+    }
+
+    /**
+     * 根据类的全限定名，在每个SourceRoot下推测类所在的源码文件，无需遍历AstForest
+     *
+     * 全限定名无法区分包名与外部类名，所以会依次尝试将末尾的部分视为内部类
+     *
+     * @param qualifier e.g.: com.spldeolin.UserVo 或 com.spldeolin.UserVo.InnerVo
+     */
+    public Optional<Path> findSourceFile(String qualifier) {
+        if (sourceRootPaths == null) {
+            collectSourceRoots();
+        }
+        String[] parts = qualifier.split("\\.");
+        for (int i = parts.length; i > 0; i--) {
+            String relative = String.join("/", Arrays.copyOf(parts, i)) + ".java";
+            for (Path sourceRootPath : sourceRootPaths) {
+                Path sourceFile = sourceRootPath.resolve(relative);
+                if (sourceFile.toFile().isFile()) {
+                    return Optional.of(sourceFile.toAbsolutePath().normalize());
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 解析一个源码文件，与遍历AstForest时一样，使用源码文件所在SourceRoot的解析配置，并使用快照（如果启用了快照）
+     *
+     * @param sourceFile 源码文件的路径，不在任何SourceRoot下、或是解析失败时返回empty
+     */
+    public Optional<CompilationUnit> parseSourceFile(Path sourceFile) {
+        if (sourceRoots == null) {
+            collectSourceRoots();
+        }
+        Path path = sourceFile.toAbsolutePath().normalize();
+        for (SourceRoot sourceRoot : sourceRoots) {
+            if (path.startsWith(sourceRoot.getRoot().toAbsolutePath().normalize())) {
+                return Optional.ofNullable(new CompilationUnitCollector().collectOne(sourceRoot, path));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 每次调用都会返回一个新的可分割迭代子，与iterator()返回的迭代子互不影响
+     */
+    @Override
+    public Spliterator<CompilationUnit> spliterator() {
+        List<SourceFile> sourceFiles = Lists.newArrayList();
+        CompilationUnitCollector collector = new CompilationUnitCollector();
+        for (SourceRoot sourceRoot : collectSourceRoots()) {
+            for (Path path : collector.listSourceFiles(sourceRoot, targetFiles)) {
+                sourceFiles.add(new SourceFile(sourceRoot, path));
+            }
+        }
+        return new AstSpliterator(sourceFiles);
+    }
+
+    public Stream<CompilationUnit> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * 使用parallelism个线程并行地解析和消费每一个cu，所有cu都被消费后才返回
+     *
+     * consumer会被多个线程同时调用，需要是线程安全的
+     */
+    public void forEachParallel(Consumer<CompilationUnit> consumer, int parallelism) {
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(() -> parallelStream().forEach(consumer)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Astforest traversed in parallel. [parallelism={} in {}ms]", parallelism,
+                System.currentTimeMillis() - start);
+    }
+
     public AstForest reset() {
         log.info("Astforest reset.");
+        this.targetFiles = null;
+        this.cursor = newCursor();
+        return this;
+    }
+
+    /**
+     * 重置AstForest，并使之后的遍历只解析参数files中的源码文件
+     *
+     * @param files 源码文件的绝对路径
+     */
+    public AstForest onlyFiles(Collection<Path> files) {
+        log.info("Astforest reset, only [{}] files will be parsed.", files.size());
+        this.targetFiles = files.stream().map(one -> one.toAbsolutePath().normalize()).collect(Collectors.toSet());
+        this.cursor = newCursor();
+        return this;
+    }
+
+    private AstCursor newCursor() {
+        return new AstCursor(collectSourceRoots(), targetFiles,
+                BaseConfig.getInstance().getMaxCompilationUnitsInFlight());
+    }
+
+    private Collection<SourceRoot> collectSourceRoots() {
         Collection<SourceRoot> sourceRoots = new SourceRootCollector()
                 .collect(stringToPath(BaseConfig.getInstance().getProjectPaths()));
-        this.cursor = new AstCursor(sourceRoots);
-        return this;
+        sourceRootPaths = sourceRoots.stream().map(SourceRoot::getRoot).collect(Collectors.toList());
+        // AstCursor遍历时会移除参数sourceRoots中的元素，所以保留一份副本
+        this.sourceRoots = Lists.newArrayList(sourceRoots);
+        ModuleJavaSymbolSolverFactory.registerSourceRoots(sourceRootPaths);
+        return sourceRoots;
     }
 
 }
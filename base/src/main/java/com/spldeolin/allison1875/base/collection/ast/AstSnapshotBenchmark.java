@@ -0,0 +1,75 @@
+package com.spldeolin.allison1875.base.collection.ast;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+import com.google.common.collect.Lists;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 比较 从快照还原cu 与 解析源码文件 的耗时
+ *
+ * 语料是BaseConfig.projectPaths下的源码文件，参数是测量的轮数（默认5轮，另有1轮预热）
+ *
+ * @author Deolin 2020-08-18
+ */
+@Log4j2
+public class AstSnapshotBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        List<String> sources = Lists.newArrayList();
+        for (Path sourceFile : AstForest.getInstance().listSourceFiles()) {
+            sources.add(new String(Files.readAllBytes(sourceFile), new ParserConfiguration().getCharacterEncoding()));
+        }
+        long sourceBytes = sources.stream().mapToLong(String::length).sum();
+
+        List<CompilationUnit> parsed = Lists.newArrayList();
+        List<byte[]> snapshots = Lists.newArrayList();
+        JavaParser javaParser = new JavaParser();
+        for (String source : sources) {
+            javaParser.parse(source).getResult().ifPresent(cu -> parsed.add(cu));
+        }
+        for (CompilationUnit cu : parsed) {
+            snapshots.add(AstSnapshotStore.encode(cu));
+        }
+        long snapshotBytes = snapshots.stream().mapToLong(one -> one.length).sum();
+
+        int mismatchCount = 0;
+        for (int i = 0; i < parsed.size(); i++) {
+            if (!AstSnapshotStore.decode(snapshots.get(i)).equals(parsed.get(i))) {
+                mismatchCount++;
+            }
+        }
+
+        long parseNanos = 0;
+        long loadNanos = 0;
+        for (int round = 0; round <= rounds; round++) {
+            long start = System.nanoTime();
+            for (String source : sources) {
+                new JavaParser().parse(source);
+            }
+            long parseEnd = System.nanoTime();
+            for (byte[] snapshot : snapshots) {
+                AstSnapshotStore.decode(snapshot);
+            }
+            long loadEnd = System.nanoTime();
+            // 第0轮是预热
+            if (round > 0) {
+                parseNanos += parseEnd - start;
+                loadNanos += loadEnd - parseEnd;
+            }
+        }
+
+        log.info("源码文件 {}个，{}字符；快照 {}bytes；还原后与解析结果不一致的cu {}个", parsed.size(), sourceBytes, snapshotBytes,
+                mismatchCount);
+        log.info("解析 平均每轮{}ms；从快照还原 平均每轮{}ms；加速{}倍", parseNanos / rounds / 1000000,
+                loadNanos / rounds / 1000000, String.format("%.2f", (double) parseNanos / Math.max(loadNanos, 1)));
+    }
+
+}
@@ -0,0 +1,369 @@
+package com.spldeolin.allison1875.base.collection.ast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import com.github.javaparser.JavaParserBuild;
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.metamodel.BaseNodeMetaModel;
+import com.github.javaparser.metamodel.JavaParserMetaModel;
+import com.github.javaparser.metamodel.PropertyMetaModel;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.spldeolin.allison1875.base.BaseConfig;
+import com.spldeolin.allison1875.base.util.StringUtils;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * CompilationUnit对象的二进制快照的存储
+ *
+ * <pre>
+ * 1. 快照按照JavaParser的元模型遍历每个节点，记录节点的类型、范围、每个属性的值、孤立的注释，整数是变长的，字符串只记录一次
+ * 2. 还原时通过元模型构造每个节点，不需要词法分析和语法分析
+ * 3. 快照以源码文件内容的sha256为key，文件头记录了JavaParser的版本和元模型的指纹，不一致的快照会被视为不存在
+ * 4. 快照不包含token，所以还原的cu不能用于LexicalPreservingPrinter
+ * </pre>
+ *
+ * @author Deolin 2020-08-18
+ */
+@Log4j2
+class AstSnapshotStore {
+
+    private static final int MAGIC = 0x41535431;
+
+    private static final String SUFFIX = ".ast";
+
+    private static final List<BaseNodeMetaModel> metaModels = JavaParserMetaModel.getNodeMetaModels();
+
+    private static final Map<BaseNodeMetaModel, Integer> metaModelIndexes = new IdentityHashMap<>();
+
+    private static final Map<BaseNodeMetaModel, List<PropertyMetaModel>> propertiesEachMetaModel = Maps
+            .newHashMap();
+
+    private static final String compatibility;
+
+    static {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (int i = 0; i < metaModels.size(); i++) {
+            BaseNodeMetaModel metaModel = metaModels.get(i);
+            metaModelIndexes.put(metaModel, i);
+            List<PropertyMetaModel> properties = listPersistentProperties(metaModel);
+            propertiesEachMetaModel.put(metaModel, properties);
+            hasher.putString(metaModel.getQualifiedClassName(), StandardCharsets.UTF_8);
+            properties.forEach(one -> hasher.putString(one.getName(), StandardCharsets.UTF_8));
+        }
+        compatibility = getJavaParserVersion() + "/" + hasher.hash().toString().substring(0, 16);
+    }
+
+    private final Path dir;
+
+    AstSnapshotStore() {
+        String path = BaseConfig.getInstance().getAstSnapshotPath();
+        this.dir = StringUtils.isBlank(path) ? null : Paths.get(path);
+    }
+
+    boolean isEnabled() {
+        return dir != null;
+    }
+
+    String keyOf(byte[] source) {
+        return Hashing.sha256().hashBytes(source).toString();
+    }
+
+    Optional<CompilationUnit> load(String key) {
+        Path snapshot = toSnapshotFile(key);
+        if (!snapshot.toFile().exists()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(decode(Files.readAllBytes(snapshot)));
+        } catch (Exception e) {
+            log.debug("Snapshot unusable, discard it. snapshot={}", snapshot, e);
+            snapshot.toFile().delete();
+            return Optional.empty();
+        }
+    }
+
+    void save(String key, CompilationUnit cu) {
+        Path snapshot = toSnapshotFile(key);
+        try {
+            byte[] bytes = encode(cu);
+            Files.createDirectories(snapshot.getParent());
+            Path temp = Files.createTempFile(snapshot.getParent(), key, ".tmp");
+            Files.write(temp, bytes);
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("Save snapshot fail. snapshot={}", snapshot, e);
+        }
+    }
+
+    static byte[] encode(CompilationUnit cu) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeInt(MAGIC);
+            out.writeUTF(compatibility);
+            new SnapshotWriter(out).writeNode(cu);
+        }
+        return baos.toByteArray();
+    }
+
+    static CompilationUnit decode(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != MAGIC || !compatibility.equals(in.readUTF())) {
+                throw new IOException("incompatible snapshot");
+            }
+            return (CompilationUnit) new SnapshotReader(in).readNode();
+        }
+    }
+
+    private Path toSnapshotFile(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+    private static List<PropertyMetaModel> listPersistentProperties(BaseNodeMetaModel metaModel) {
+        Set<PropertyMetaModel> derived = Sets.newHashSet();
+        for (Optional<BaseNodeMetaModel> one = Optional.of(metaModel); one.isPresent();
+             one = one.get().getSuperNodeMetaModel()) {
+            derived.addAll(one.get().getDerivedPropertyMetaModels());
+        }
+        List<PropertyMetaModel> result = Lists.newArrayList();
+        for (PropertyMetaModel property : metaModel.getAllPropertyMetaModels()) {
+            if (!derived.contains(property)) {
+                result.add(property);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * JavaParserBuild.PROJECT_VERSION是编译期常量，需要反射获取运行时的值
+     */
+    private static String getJavaParserVersion() {
+        try {
+            return (String) JavaParserBuild.class.getField("PROJECT_VERSION").get(null);
+        } catch (ReflectiveOperationException e) {
+            return "unknown";
+        }
+    }
+
+    private static class SnapshotWriter {
+
+        private final DataOutputStream out;
+
+        private final Map<String, Integer> strings = Maps.newHashMap();
+
+        private SnapshotWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeNode(Node node) throws IOException {
+            if (node == null) {
+                writeVarInt(-1);
+                return;
+            }
+            BaseNodeMetaModel metaModel = node.getMetaModel();
+            writeVarInt(metaModelIndexes.get(metaModel));
+
+            Optional<Range> range = node.getRange();
+            out.writeBoolean(range.isPresent());
+            if (range.isPresent()) {
+                writeVarInt(range.get().begin.line);
+                writeVarInt(range.get().begin.column);
+                writeVarInt(range.get().end.line);
+                writeVarInt(range.get().end.column);
+            }
+
+            for (PropertyMetaModel property : propertiesEachMetaModel.get(metaModel)) {
+                Object value = property.getValue(node);
+                if (property.isNodeList()) {
+                    // 可选的NodeList可能为null，如不含泛型的ClassOrInterfaceType的typeArguments
+                    NodeList<?> nodes = (NodeList<?>) value;
+                    writeVarInt(nodes == null ? -1 : nodes.size());
+                    if (nodes != null) {
+                        for (Node one : nodes) {
+                            writeNode(one);
+                        }
+                    }
+                } else if (property.isNode()) {
+                    writeNode((Node) value);
+                } else if (value instanceof Boolean) {
+                    out.writeBoolean((Boolean) value);
+                } else if (value == null || value instanceof String) {
+                    writeString((String) value);
+                } else if (value instanceof Enum) {
+                    writeString(((Enum<?>) value).name());
+                } else {
+                    throw new IOException("unsupported property " + property);
+                }
+            }
+
+            List<Comment> orphanComments = node.getOrphanComments();
+            writeVarInt(orphanComments.size());
+            for (Comment orphanComment : orphanComments) {
+                writeNode(orphanComment);
+            }
+        }
+
+        /**
+         * zigzag编码的变长整数，绝大多数行号、列号、下标只需要1~2个字节
+         */
+        private void writeVarInt(int value) throws IOException {
+            int zigzag = (value << 1) ^ (value >> 31);
+            while ((zigzag & ~0x7F) != 0) {
+                out.writeByte((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.writeByte(zigzag);
+        }
+
+        private void writeString(String string) throws IOException {
+            if (string == null) {
+                writeVarInt(-1);
+                return;
+            }
+            Integer index = strings.get(string);
+            if (index != null) {
+                writeVarInt(index);
+                return;
+            }
+            writeVarInt(strings.size());
+            strings.put(string, strings.size());
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+    }
+
+    private static class SnapshotReader {
+
+        private final DataInputStream in;
+
+        private final List<String> strings = Lists.newArrayList();
+
+        private SnapshotReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Node readNode() throws IOException {
+            int index = readVarInt();
+            if (index == -1) {
+                return null;
+            }
+            BaseNodeMetaModel metaModel = metaModels.get(index);
+
+            Range range = null;
+            if (in.readBoolean()) {
+                range = Range.range(readVarInt(), readVarInt(), readVarInt(), readVarInt());
+            }
+
+            List<PropertyMetaModel> properties = propertiesEachMetaModel.get(metaModel);
+            Map<String, Object> values = Maps.newHashMapWithExpectedSize(properties.size());
+            for (PropertyMetaModel property : properties) {
+                Class<?> type = property.getType();
+                Object value;
+                if (property.isNodeList()) {
+                    int size = readVarInt();
+                    NodeList<Node> nodes = size == -1 ? null : new NodeList<>();
+                    for (int i = 0; i < size; i++) {
+                        nodes.add(readNode());
+                    }
+                    value = nodes;
+                } else if (property.isNode()) {
+                    value = readNode();
+                } else if (type == boolean.class || type == Boolean.class) {
+                    value = in.readBoolean();
+                } else if (type == String.class) {
+                    value = readString();
+                } else if (type.isEnum()) {
+                    String name = readString();
+                    value = name == null ? null : Enum.valueOf((Class<Enum>) type, name);
+                } else {
+                    throw new IOException("unsupported property " + property);
+                }
+                values.put(property.getName(), value);
+            }
+
+            Node node = metaModel.construct(values);
+            for (PropertyMetaModel property : properties) {
+                Object value = values.get(property.getName());
+                if (value != null && !metaModel.getConstructorParameters().contains(property)) {
+                    invokeSetter(node, property, value);
+                }
+            }
+            int orphanCommentCount = readVarInt();
+            for (int i = 0; i < orphanCommentCount; i++) {
+                node.addOrphanComment((Comment) readNode());
+            }
+            if (range != null) {
+                node.setRange(range);
+            }
+            return node;
+        }
+
+        private void invokeSetter(Node node, PropertyMetaModel property, Object value) throws IOException {
+            for (Method method : node.getClass().getMethods()) {
+                if (method.getName().equals(property.getSetterMethodName()) && method.getParameterCount() == 1
+                        && method.getParameterTypes()[0].isInstance(value)) {
+                    try {
+                        method.invoke(node, value);
+                        return;
+                    } catch (ReflectiveOperationException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+            throw new IOException("setter absent " + property);
+        }
+
+        private int readVarInt() throws IOException {
+            int zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.readByte();
+                zigzag |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private String readString() throws IOException {
+            int index = readVarInt();
+            if (index == -1) {
+                return null;
+            }
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            byte[] bytes = new byte[readVarInt()];
+            in.readFully(bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(string);
+            return string;
+        }
+
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.spldeolin.allison1875.base.collection.ast;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.utils.SourceRoot;
+import com.spldeolin.allison1875.base.classloader.ModuleJavaSymbolSolverFactory;
+import lombok.AllArgsConstructor;
+
+/**
+ * 可分割的抽象语法树迭代子
+ *
+ * <pre>
+ * 所有sourceRoot下的源码文件被平铺为一个列表，每次分割取走剩余部分的前一半，所以既能跨sourceRoot分割，也能在sourceRoot内部分割
+ * 源码文件在tryAdvance时才被解析，解析与消费发生在同一个线程，cu使用的是该线程专属的JavaSymbolSolver
+ * </pre>
+ *
+ * @author Deolin 2020-08-17
+ */
+class AstSpliterator implements Spliterator<CompilationUnit> {
+
+    private final CompilationUnitCollector collector = new CompilationUnitCollector();
+
+    private final List<SourceFile> sourceFiles;
+
+    private int index;
+
+    private final int fence;
+
+    AstSpliterator(List<SourceFile> sourceFiles) {
+        this(sourceFiles, 0, sourceFiles.size());
+    }
+
+    private AstSpliterator(List<SourceFile> sourceFiles, int origin, int fence) {
+        this.sourceFiles = sourceFiles;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super CompilationUnit> action) {
+        while (index < fence) {
+            SourceFile sourceFile = sourceFiles.get(index++);
+            CompilationUnit cu = collector.collectOne(sourceFile.sourceRoot, sourceFile.path);
+            if (cu != null) {
+                ModuleJavaSymbolSolverFactory.getJavaSymbolSolver().inject(cu);
+                action.accept(cu);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Spliterator<CompilationUnit> trySplit() {
+        int mid = (index + fence) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        AstSpliterator prefix = new AstSpliterator(sourceFiles, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        // 解析失败的源码文件不会产生cu，所以只是估计值
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL | IMMUTABLE;
+    }
+
+    @AllArgsConstructor
+    static class SourceFile {
+
+        private final SourceRoot sourceRoot;
+
+        private final Path path;
+
+    }
+
+}
@@ -1,13 +1,27 @@
 package com.spldeolin.allison1875.base.collection.ast;
 
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.atteo.evo.inflector.English;
+import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParseStart;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.Problem;
+import com.github.javaparser.Providers;
 import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.comments.CommentsCollection;
 import com.github.javaparser.ast.comments.LineComment;
 import com.github.javaparser.symbolsolver.JavaSymbolSolver;
@@ -26,36 +40,148 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 class CompilationUnitCollector {
 
-    Collection<CompilationUnit> collect(SourceRoot sourceRoot) {
-        if (sourceRoot.toString().endsWith("src" + File.separator + "test" + File.separator + "java")) {
-            return Lists.newArrayList();
-        }
+    private final SourceSelector sourceSelector = new SourceSelector();
 
-        JavaSymbolSolver symbolSolver = ModuleJavaSymbolSolverFactory.getJavaSymbolSolver();
-        sourceRoot.getParserConfiguration().setSymbolResolver(symbolSolver);
+    private final AstSnapshotStore snapshotStore = new AstSnapshotStore();
 
+    /**
+     * @param targetFiles 为null时解析sourceRoot下的所有源码文件，否则只解析sourceRoot下属于targetFiles的源码文件
+     */
+    Collection<CompilationUnit> collect(SourceRoot sourceRoot, Set<Path> targetFiles) {
         long start = System.currentTimeMillis();
-        int count = 0;
-
-        List<ParseResult<CompilationUnit>> parseResults = sourceRoot.tryToParseParallelized();
-        Collection<CompilationUnit> result = Lists.newArrayListWithCapacity(parseResults.size());
-        for (ParseResult<CompilationUnit> parseResult : parseResults) {
-            if (parseResult.isSuccessful()) {
-                parseResult.getResult().ifPresent(result::add);
-                count++;
-            } else {
-                this.reportProblems(parseResult);
-            }
+        Collection<CompilationUnit> result = parse(sourceRoot, listSourceFiles(sourceRoot, targetFiles));
+        if (result.size() > 0) {
+            log.info("CompilationUnit collected. [{} of {} at {} in {}ms]", result.size(),
+                    English.plural("CompilationUnit", result.size()),
+                    BaseConfig.getInstance().getCommonPart().relativize(sourceRoot.getRoot()),
+                    System.currentTimeMillis() - start);
         }
-        if (count > 0) {
-            log.info("CompilationUnit collected. [{} of {} at {} in {}ms]", count,
-                    English.plural("CompilationUnit", count),
+        return result;
+    }
+
+    /**
+     * 列出sourceRoot下被SourceSelector选择的源码文件，并为sourceRoot准备好符号解析器
+     *
+     * @param targetFiles 为null时列出sourceRoot下的所有源码文件，否则只列出sourceRoot下属于targetFiles的源码文件
+     */
+    List<Path> listSourceFiles(SourceRoot sourceRoot, Set<Path> targetFiles) {
+        prepareSymbolSolver(sourceRoot);
+
+        Path root = sourceRoot.getRoot().toAbsolutePath().normalize();
+        List<Path> candidates;
+        if (targetFiles == null) {
+            candidates = walk(root);
+        } else {
+            candidates = targetFiles.stream().filter(one -> one.startsWith(root) && one.toFile().exists()).sorted()
+                    .collect(Collectors.toList());
+        }
+        return sourceSelector.select(root, candidates);
+    }
+
+    private List<Path> walk(Path root) {
+        List<Path> result = Lists.newArrayList();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(root) && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && file.toString().endsWith(".java")) {
+                        result.add(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            log.warn("List source files fail, ignore and continue. root={}", root, e);
+        }
+        return result;
+    }
+
+    /**
+     * 解析一批源码文件，解析的结果不会被sourceRoot缓存，调用方不再引用后即可被回收
+     */
+    Collection<CompilationUnit> collectBatch(SourceRoot sourceRoot, List<Path> sourceFiles) {
+        long start = System.currentTimeMillis();
+        Collection<CompilationUnit> result = parse(sourceRoot, sourceFiles);
+        if (result.size() > 0) {
+            log.debug("CompilationUnit collected. [{} of {} at {} in {}ms]", result.size(),
+                    English.plural("CompilationUnit", result.size()),
                     BaseConfig.getInstance().getCommonPart().relativize(sourceRoot.getRoot()),
                     System.currentTimeMillis() - start);
         }
         return result;
     }
 
+    /**
+     * 解析一个源码文件，解析失败时返回null
+     */
+    CompilationUnit collectOne(SourceRoot sourceRoot, Path sourceFile) {
+        if (snapshotStore.isEnabled()) {
+            return collectOneWithSnapshot(sourceRoot, sourceFile);
+        }
+        ParseResult<CompilationUnit> parseResult;
+        try {
+            parseResult = new JavaParser(sourceRoot.getParserConfiguration()).parse(sourceFile);
+        } catch (IOException e) {
+            log.warn("Parse fail, ignore and continue. path={}", sourceFile, e);
+            return null;
+        }
+        if (!parseResult.isSuccessful()) {
+            this.reportProblems(parseResult);
+            return null;
+        }
+        return parseResult.getResult().orElse(null);
+    }
+
+    /**
+     * 源码文件未变动时，从快照还原cu，否则解析源码文件并保存快照
+     */
+    private CompilationUnit collectOneWithSnapshot(SourceRoot sourceRoot, Path sourceFile) {
+        ParserConfiguration configuration = sourceRoot.getParserConfiguration();
+        byte[] source;
+        try {
+            source = Files.readAllBytes(sourceFile);
+        } catch (IOException e) {
+            log.warn("Parse fail, ignore and continue. path={}", sourceFile, e);
+            return null;
+        }
+        String key = snapshotStore.keyOf(source);
+
+        CompilationUnit cu = snapshotStore.load(key).orElse(null);
+        if (cu == null) {
+            ParseResult<CompilationUnit> parseResult = new JavaParser(configuration).parse(ParseStart.COMPILATION_UNIT,
+                    Providers.provider(new ByteArrayInputStream(source), configuration.getCharacterEncoding()));
+            if (!parseResult.isSuccessful() || !parseResult.getResult().isPresent()) {
+                this.reportProblems(parseResult);
+                return null;
+            }
+            cu = parseResult.getResult().get();
+            snapshotStore.save(key, cu);
+        } else {
+            CompilationUnit restored = cu;
+            configuration.getSymbolResolver()
+                    .ifPresent(symbolResolver -> restored.setData(Node.SYMBOL_RESOLVER_KEY, symbolResolver));
+        }
+        return cu.setStorage(sourceFile, configuration.getCharacterEncoding());
+    }
+
+    private Collection<CompilationUnit> parse(SourceRoot sourceRoot, List<Path> sourceFiles) {
+        return sourceFiles.parallelStream().map(one -> collectOne(sourceRoot, one)).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private void prepareSymbolSolver(SourceRoot sourceRoot) {
+        JavaSymbolSolver symbolSolver = ModuleJavaSymbolSolverFactory.getJavaSymbolSolver();
+        sourceRoot.getParserConfiguration().setSymbolResolver(symbolSolver);
+    }
+
     private void reportProblems(ParseResult<CompilationUnit> parseResult) {
         Optional<CommentsCollection> commentsCollection = parseResult.getCommentsCollection();
         String longestComment = "";
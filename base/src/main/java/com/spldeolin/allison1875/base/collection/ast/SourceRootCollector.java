@@ -3,9 +3,11 @@ package com.spldeolin.allison1875.base.collection.ast;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import com.github.javaparser.symbolsolver.utils.SymbolSolverCollectionStrategy;
 import com.github.javaparser.utils.SourceRoot;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.spldeolin.allison1875.base.BaseConfig;
 import lombok.extern.log4j.Log4j2;
 
@@ -18,14 +20,36 @@ import lombok.extern.log4j.Log4j2;
 class SourceRootCollector {
 
     Collection<SourceRoot> collect(Collection<Path> projectPaths) {
-        Collection<SourceRoot> result = Lists.newArrayList();
-        for (Path projectPath : projectPaths) {
+        Map<Path, SourceRoot> result = Maps.newLinkedHashMap();
+        for (Path projectPath : dedupProjectPaths(projectPaths)) {
             List<SourceRoot> sourceRoots = new SymbolSolverCollectionStrategy().collect(projectPath).getSourceRoots();
-            result.addAll(sourceRoots);
+            for (SourceRoot sourceRoot : sourceRoots) {
+                result.putIfAbsent(sourceRoot.getRoot().toAbsolutePath().normalize(), sourceRoot);
+            }
         }
-        for (SourceRoot sr : result) {
+        for (SourceRoot sr : result.values()) {
             log.info("SourceRoot collected. [{}]", BaseConfig.getInstance().getCommonPart().relativize(sr.getRoot()));
         }
+        return result.values();
+    }
+
+    /**
+     * 去除重复的项目路径，以及位于其他项目路径之下的项目路径
+     */
+    private Collection<Path> dedupProjectPaths(Collection<Path> projectPaths) {
+        List<Path> normalized = Lists.newArrayList();
+        projectPaths.forEach(one -> normalized.add(one.toAbsolutePath().normalize()));
+
+        Collection<Path> result = Lists.newArrayList();
+        for (Path path : normalized) {
+            boolean overlapped = result.contains(path) || normalized.stream()
+                    .anyMatch(other -> !other.equals(path) && path.startsWith(other));
+            if (overlapped) {
+                log.info("Project path overlapped, ignore it. [{}]", path);
+            } else {
+                result.add(path);
+            }
+        }
         return result;
     }
 
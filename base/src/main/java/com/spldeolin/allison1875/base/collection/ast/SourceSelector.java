@@ -0,0 +1,195 @@
+package com.spldeolin.allison1875.base.collection.ast;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.spldeolin.allison1875.base.BaseConfig;
+import com.spldeolin.allison1875.base.BaseConfig.SourceSelection;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 源码文件的选择器
+ *
+ * <pre>
+ * 1. 模块是sourceRoot向上最近的含有pom.xml或build.gradle的目录，glob匹配的是源码文件相对于模块的路径
+ * 2. includes不为空时，只选择匹配includes的源码文件；匹配excludes的源码文件不会被选择
+ * 3. src/test/**总是被排除，除非模块或default的规则将excludeTestSources指定为false
+ * 4. pruneGeneratedSources不为false时，target/generated-sources等目录下的源码文件，
+ *    以及文件头部声明了javax.annotation.Generated、或是含有已知生成器的头部注释
+ *    （e.g.: Code generated by xxx. DO NOT EDIT.）的源码文件不会被选择
+ * </pre>
+ *
+ * @author Deolin 2020-08-17
+ */
+@Log4j2
+class SourceSelector {
+
+    private static final String DEFAULT_MODULE = "default";
+
+    private static final String TEST_SOURCES = "src/test/**";
+
+    private static final int HEAD_BYTES = 8192;
+
+    private static final Pattern generatedPathPattern = Pattern
+            .compile("(^|/)(target|build)/generated[^/]*(/|$)|(^|/)generated-(test-)?sources(/|$)");
+
+    /**
+     * 只识别生成器的固定写法，手写的源码中出现DO NOT EDIT等字样不会被视为生成的
+     */
+    private static final Pattern generatedMarkerPattern = Pattern.compile(
+            "(?m)javax\\.annotation(\\.processing)?\\.Generated\\b"
+                    + "|^\\s*(//|/?\\*)\\s*Code generated\\b.*\\bDO NOT EDIT\\b"
+                    + "|Generated by the protocol buffer compiler\\.\\s+DO NOT EDIT");
+
+    private final FileSystem fileSystem = FileSystems.getDefault();
+
+    private final Map<String, SourceSelection> sourceSelections = BaseConfig.getInstance().getSourceSelections();
+
+    private final boolean pruneGeneratedSources = !Boolean.FALSE
+            .equals(BaseConfig.getInstance().getPruneGeneratedSources());
+
+    private final Map<Path, Path> moduleDirs = Maps.newHashMap();
+
+    /**
+     * @param root        sourceRoot的绝对路径
+     * @param sourceFiles sourceRoot下的候选源码文件
+     * @return 被选择的源码文件
+     */
+    List<Path> select(Path root, List<Path> sourceFiles) {
+        Path moduleDir = findModuleDir(root);
+        String moduleName = toSlashSeparated(BaseConfig.getInstance().getCommonPart().toAbsolutePath().normalize()
+                .relativize(moduleDir));
+        List<PathMatcher> includes = toMatchers(getSelection(moduleName, true));
+        List<PathMatcher> excludes = toMatchers(getSelection(moduleName, false));
+
+        String rootRelativePath = toSlashSeparated(moduleDir.relativize(root));
+        String rootPrunedReason = null;
+        if (pruneGeneratedSources && generatedPathPattern.matcher(rootRelativePath).find()) {
+            rootPrunedReason = "generated sources";
+        } else if (matchesAny(excludes, moduleDir.relativize(root))) {
+            rootPrunedReason = "excluded";
+        }
+        if (rootPrunedReason != null) {
+            logPruned(root, sourceFiles, rootPrunedReason);
+            return Lists.newArrayList();
+        }
+
+        List<Path> result = Lists.newArrayListWithCapacity(sourceFiles.size());
+        List<Path> pruned = Lists.newArrayList();
+        for (Path sourceFile : sourceFiles) {
+            Path relativePath = moduleDir.relativize(sourceFile);
+            boolean selected = (includes.isEmpty() || matchesAny(includes, relativePath)) && !matchesAny(excludes,
+                    relativePath) && !(pruneGeneratedSources && isGenerated(sourceFile));
+            if (selected) {
+                result.add(sourceFile);
+            } else {
+                log.debug("Source file pruned. [{}]", relativePath);
+                pruned.add(sourceFile);
+            }
+        }
+        if (pruned.size() > 0) {
+            logPruned(root, pruned, "not selected");
+        }
+        return result;
+    }
+
+    private Path findModuleDir(Path root) {
+        return moduleDirs.computeIfAbsent(root, key -> {
+            for (Path dir = key; dir != null; dir = dir.getParent()) {
+                if (dir.resolve("pom.xml").toFile().exists() || dir.resolve("build.gradle").toFile().exists()) {
+                    return dir;
+                }
+            }
+            return key.getParent() == null ? key : key.getParent();
+        });
+    }
+
+    private Collection<String> getSelection(String moduleName, boolean isIncludes) {
+        Collection<String> result = Lists.newArrayList();
+        if (!isIncludes && isTestSourcesExcluded(moduleName)) {
+            result.add(TEST_SOURCES);
+        }
+        if (sourceSelections == null) {
+            return result;
+        }
+        for (String key : Lists.newArrayList(DEFAULT_MODULE, moduleName)) {
+            SourceSelection selection = sourceSelections.get(key);
+            if (selection != null) {
+                Collection<String> globs = isIncludes ? selection.getIncludes() : selection.getExcludes();
+                if (globs != null) {
+                    result.addAll(globs);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 模块的规则优先于default的规则，都未指定时排除
+     */
+    private boolean isTestSourcesExcluded(String moduleName) {
+        if (sourceSelections == null) {
+            return true;
+        }
+        for (String key : Lists.newArrayList(moduleName, DEFAULT_MODULE)) {
+            SourceSelection selection = sourceSelections.get(key);
+            if (selection != null && selection.getExcludeTestSources() != null) {
+                return selection.getExcludeTestSources();
+            }
+        }
+        return true;
+    }
+
+    private List<PathMatcher> toMatchers(Collection<String> globs) {
+        return globs.stream().map(glob -> fileSystem.getPathMatcher("glob:" + glob)).collect(Collectors.toList());
+    }
+
+    private boolean matchesAny(List<PathMatcher> matchers, Path relativePath) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isGenerated(Path sourceFile) {
+        try (FileChannel channel = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(HEAD_BYTES, channel.size()));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return generatedMarkerPattern.matcher(StandardCharsets.ISO_8859_1.decode(buffer)).find();
+        } catch (IOException e) {
+            log.warn("Read head of source file fail, treat it as not generated. path={}", sourceFile, e);
+            return false;
+        }
+    }
+
+    private void logPruned(Path root, Collection<Path> pruned, String reason) {
+        long bytes = pruned.stream().mapToLong(one -> one.toFile().length()).sum();
+        log.info("Source files pruned. [{} files, {} bytes at {}, {}]", pruned.size(), bytes,
+                BaseConfig.getInstance().getCommonPart().relativize(root), reason);
+    }
+
+    private String toSlashSeparated(Path path) {
+        return path.toString().replace('\\', '/');
+    }
+
+}
@@ -11,12 +11,7 @@ import java.util.Set;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 import com.google.common.collect.Sets;
 import com.spldeolin.allison1875.base.util.TimeUtils;
 import lombok.extern.log4j.Log4j2;
@@ -72,9 +67,7 @@ class AddedFileCollector {
     private Set<Path> listAddTypePath(Git git, RevCommit newCommit, RevCommit oldCommit)
             throws GitAPIException, IOException {
         String projectPath = git.getRepository().getWorkTree().getPath();
-        AbstractTreeIterator oldTree = getAbstractTreeIterator(oldCommit, git.getRepository());
-        AbstractTreeIterator newTree = getAbstractTreeIterator(newCommit, git.getRepository());
-        List<DiffEntry> diffs = git.diff().setOldTree(oldTree).setNewTree(newTree).call();
+        List<DiffEntry> diffs = ChangedFileCollector.listDiffs(git, newCommit, oldCommit);
         Set<Path> result = Sets.newHashSet();
         for (DiffEntry diff : diffs) {
             if (DiffEntry.ChangeType.ADD == diff.getChangeType()) {
@@ -84,16 +77,4 @@ class AddedFileCollector {
         return result;
     }
 
-    private AbstractTreeIterator getAbstractTreeIterator(RevCommit commit, Repository repository) throws IOException {
-        CanonicalTreeParser treeParser = new CanonicalTreeParser();
-        RevWalk revWalk = new RevWalk(repository);
-        try {
-            RevTree revTree = revWalk.parseTree(commit.getTree().getId());
-            treeParser.reset(repository.newObjectReader(), revTree.getId());
-        } finally {
-            revWalk.dispose();
-        }
-        return treeParser;
-    }
-
 }
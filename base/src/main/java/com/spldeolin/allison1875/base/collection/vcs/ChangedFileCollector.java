@@ -0,0 +1,129 @@
+package com.spldeolin.allison1875.base.collection.vcs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import com.google.common.collect.Sets;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 指定commit以来发生变动的文件的收集器
+ *
+ * @author Deolin 2020-08-16
+ */
+@Log4j2
+public class ChangedFileCollector {
+
+    /**
+     * 收集参数sinceCommitId到HEAD之间，以及工作区中尚未提交的变动文件
+     *
+     * @return sinceCommitId在仓库中不存在时（例如历史被改写），返回empty
+     */
+    public Optional<ChangedFiles> collectSinceCommit(GitLoader loader, String sinceCommitId)
+            throws GitAPIException, IOException {
+        Repository repo = loader.repo();
+        ObjectId sinceId = repo.resolve(sinceCommitId);
+        ObjectId headId = repo.resolve(GitLoader.HEAD);
+        if (sinceId == null || headId == null) {
+            log.warn("commit [{}] or HEAD cannot resolve.", sinceCommitId);
+            return Optional.empty();
+        }
+
+        ChangedFiles result = new ChangedFiles();
+        String projectPath = repo.getWorkTree().getPath();
+        RevWalk revWalk = new RevWalk(repo);
+        try {
+            RevCommit sinceCommit = revWalk.parseCommit(sinceId);
+            RevCommit headCommit = revWalk.parseCommit(headId);
+            for (DiffEntry diff : listDiffs(loader.git(), headCommit, sinceCommit)) {
+                switch (diff.getChangeType()) {
+                    case ADD:
+                    case COPY:
+                        result.getAdded().add(Paths.get(projectPath, diff.getNewPath()));
+                        break;
+                    case MODIFY:
+                        result.getModified().add(Paths.get(projectPath, diff.getNewPath()));
+                        break;
+                    case DELETE:
+                        result.getDeleted().add(Paths.get(projectPath, diff.getOldPath()));
+                        break;
+                    case RENAME:
+                        result.getDeleted().add(Paths.get(projectPath, diff.getOldPath()));
+                        result.getAdded().add(Paths.get(projectPath, diff.getNewPath()));
+                        break;
+                }
+            }
+        } finally {
+            revWalk.dispose();
+        }
+
+        // 工作区中尚未提交的变动
+        Status status = loader.git().status().call();
+        status.getAdded().forEach(one -> result.getAdded().add(Paths.get(projectPath, one)));
+        status.getUntracked().forEach(one -> result.getAdded().add(Paths.get(projectPath, one)));
+        status.getChanged().forEach(one -> result.getModified().add(Paths.get(projectPath, one)));
+        status.getModified().forEach(one -> result.getModified().add(Paths.get(projectPath, one)));
+        status.getRemoved().forEach(one -> result.getDeleted().add(Paths.get(projectPath, one)));
+        status.getMissing().forEach(one -> result.getDeleted().add(Paths.get(projectPath, one)));
+
+        // 以工作区中文件实际是否存在为准，修正同一个文件被多次变动的情况
+        result.getModified().removeAll(result.getAdded());
+        for (Path path : result.all()) {
+            if (path.toFile().exists()) {
+                result.getDeleted().remove(path);
+            } else {
+                result.getAdded().remove(path);
+                result.getModified().remove(path);
+                result.getDeleted().add(path);
+            }
+        }
+        return Optional.of(result);
+    }
+
+    /**
+     * 收集工作区中尚未提交的变动文件，包括未被跟踪的文件
+     */
+    public Set<Path> collectUncommitted(GitLoader loader) throws GitAPIException {
+        String projectPath = loader.repo().getWorkTree().getPath();
+        Status status = loader.git().status().call();
+        Set<Path> result = Sets.newHashSet();
+        status.getUncommittedChanges().forEach(one -> result.add(Paths.get(projectPath, one)));
+        status.getUntracked().forEach(one -> result.add(Paths.get(projectPath, one)));
+        return result;
+    }
+
+    static List<DiffEntry> listDiffs(Git git, RevCommit newCommit, RevCommit oldCommit)
+            throws GitAPIException, IOException {
+        AbstractTreeIterator oldTree = getAbstractTreeIterator(oldCommit, git.getRepository());
+        AbstractTreeIterator newTree = getAbstractTreeIterator(newCommit, git.getRepository());
+        return git.diff().setOldTree(oldTree).setNewTree(newTree).call();
+    }
+
+    private static AbstractTreeIterator getAbstractTreeIterator(RevCommit commit, Repository repository)
+            throws IOException {
+        CanonicalTreeParser treeParser = new CanonicalTreeParser();
+        RevWalk revWalk = new RevWalk(repository);
+        try {
+            RevTree revTree = revWalk.parseTree(commit.getTree().getId());
+            treeParser.reset(repository.newObjectReader(), revTree.getId());
+        } finally {
+            revWalk.dispose();
+        }
+        return treeParser;
+    }
+
+}
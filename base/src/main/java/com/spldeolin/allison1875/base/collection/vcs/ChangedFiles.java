@@ -0,0 +1,41 @@
+package com.spldeolin.allison1875.base.collection.vcs;
+
+import java.nio.file.Path;
+import java.util.Set;
+import com.google.common.collect.Sets;
+import lombok.Data;
+
+/**
+ * 两个版本之间发生变动的文件，均为绝对路径
+ *
+ * @author Deolin 2020-08-16
+ */
+@Data
+public class ChangedFiles {
+
+    private final Set<Path> added = Sets.newHashSet();
+
+    private final Set<Path> modified = Sets.newHashSet();
+
+    private final Set<Path> deleted = Sets.newHashSet();
+
+    /**
+     * 新增、修改、删除的所有文件
+     */
+    public Set<Path> all() {
+        Set<Path> result = Sets.newHashSet(added);
+        result.addAll(modified);
+        result.addAll(deleted);
+        return result;
+    }
+
+    /**
+     * 新增、修改的文件，这些文件在当前工作区中依然存在
+     */
+    public Set<Path> existing() {
+        Set<Path> result = Sets.newHashSet(added);
+        result.addAll(modified);
+        return result;
+    }
+
+}
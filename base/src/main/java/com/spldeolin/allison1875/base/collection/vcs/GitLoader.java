@@ -5,6 +5,7 @@ import java.nio.file.Path;
 import java.util.List;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import com.google.common.collect.Lists;
@@ -18,6 +19,8 @@ import lombok.experimental.Accessors;
 @Accessors(fluent = true)
 public class GitLoader {
 
+    public static final String HEAD = "HEAD";
+
     @Setter
     @Getter
     private Path projectPath;
@@ -38,6 +41,14 @@ public class GitLoader {
         return this;
     }
 
+    /**
+     * @return HEAD指向的commit的ID，仓库中还没有任何commit时返回null
+     */
+    public String headCommitId() throws IOException {
+        ObjectId head = repo.resolve(HEAD);
+        return head == null ? null : head.getName();
+    }
+
     public void close() {
         if (git != null) {
             git.close();
@@ -1,6 +1,7 @@
 package com.spldeolin.allison1875.docanalyzer;
 
 
+import java.util.Collection;
 import com.spldeolin.allison1875.base.util.YamlUtils;
 import lombok.Data;
 import lombok.Getter;
@@ -39,7 +40,115 @@ public final class DocAnalyzerConfig {
      */
     private String yapiToken;
 
+    /**
+     * 上次成功分析的状态文件的路径，指定后仅增量分析自上次成功分析以来git中发生变动的文件，不填则每次全量分析
+     */
+    private String analysisStatePath;
+
+    /**
+     * 是否在解析之前预扫描源码文件，只解析可能包含controller的源码文件，以及从handler签名可达的源码文件
+     */
+    private Boolean enablePreScan;
+
+    /**
+     * 源码文件信息缓存的目录，指定后未变动且不含controller的源码文件无需解析，不填则不使用缓存
+     */
+    private String fileFactsCachePath;
+
+    /**
+     * 源码文件信息缓存的总大小上限，不填则为256MB
+     */
+    private Long fileFactsCacheMaxBytes;
+
+    /**
+     * 同步到YApi时同时进行的请求数上限，也是保留的空闲连接数上限，不填则为8
+     */
+    private Integer yapiSyncParallelism;
+
+    /**
+     * 同步到YApi时每秒最多发出的请求数，不填则不限流
+     */
+    private Double yapiRequestsPerSecond;
+
+    /**
+     * 请求YApi失败时的重试次数，不填则为2
+     */
+    private Integer yapiMaxRetries;
+
+    /**
+     * 每次请求YApi的超时时间（毫秒），包括建立连接、发送请求、读取响应，不填则为30000
+     */
+    private Long yapiCallTimeoutMillis;
+
+    /**
+     * 是否将需要新增或更新的接口构建成一份导入文档，通过YApi的数据导入接口一次性导入
+     */
+    private Boolean yapiBulkImport;
+
+    /**
+     * YApi镜像的保存路径，指定后同步成功时保存YApi的项目、分类、接口信息，有效期内的下次同步无需从YApi加载，不填则不保存
+     */
+    private String yapiMirrorPath;
+
+    /**
+     * YApi镜像的有效期（秒），不填则为600
+     */
+    private Long yapiMirrorTtlSeconds;
+
+    /**
+     * YApi同步日志的路径，指定后同步计划在执行前写入日志，同步中断时下次同步先完成日志中未完成的操作，不填则不记录
+     */
+    private String yapiJournalPath;
+
+    /**
+     * 仅生成YApi同步计划并写入同步日志，不执行，用于在其他机器上重放，不填则为false
+     */
+    private Boolean yapiJournalPlanOnly;
+
+    /**
+     * 多个YApi项目，每个项目通过源码路径前缀或包名前缀认领endpoint，各项目并发同步，
+     * 未被认领的endpoint同步到yapiUrl、yapiToken指定的项目，不填则所有endpoint都同步到yapiUrl、yapiToken指定的项目
+     */
+    private Collection<YApiTarget> yapiTargets;
+
     private DocAnalyzerConfig() {
     }
 
+    /**
+     * 同步的目标YApi项目，并发数、限流、重试、批量导入等配置与其他项目相同
+     */
+    @Data
+    public static class YApiTarget {
+
+        /**
+         * 项目名，用于日志
+         */
+        private String name;
+
+        private String yapiUrl;
+
+        private String yapiToken;
+
+        /**
+         * controller所在源码文件相对于commonPart的路径前缀，如 order-service/src/main/java
+         */
+        private Collection<String> sourceRoots;
+
+        /**
+         * controller的包名前缀，如 com.example.order
+         */
+        private Collection<String> packagePrefixes;
+
+        /**
+         * 这个项目的YApi镜像的保存路径，不填则不保存
+         */
+        private String yapiMirrorPath;
+
+        /**
+         * 这个项目的YApi同步日志的路径，不填则不记录
+         */
+        private String yapiJournalPath;
+
+    }
+
 }
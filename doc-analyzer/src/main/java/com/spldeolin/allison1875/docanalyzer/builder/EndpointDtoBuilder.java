@@ -36,6 +36,10 @@ public class EndpointDtoBuilder {
 
     private String sourceCode;
 
+    private String controllerFile;
+
+    private Collection<String> dependentFiles;
+
     public Collection<EndpointDto> build() {
         Collection<EndpointDto> result = Lists.newArrayList();
         for (String combinedUrl : combinedUrls) {
@@ -59,6 +63,8 @@ public class EndpointDtoBuilder {
             dto.setResponseBodyJsonSchema(responseBodyJsonSchema);
             dto.setAuthor(author);
             dto.setSourceCode(sourceCode);
+            dto.setControllerFile(controllerFile);
+            dto.setDependentFiles(dependentFiles);
             result.add(dto);
         }
         return result;
@@ -0,0 +1,37 @@
+package com.spldeolin.allison1875.docanalyzer.dto;
+
+import java.util.Collection;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * 上次成功分析的状态，用于增量分析
+ *
+ * @author Deolin 2020-08-16
+ */
+@Data
+public class AnalysisStateDto {
+
+    /**
+     * 分析时HEAD指向的commit
+     */
+    private String commitId;
+
+    /**
+     * 分析时工作区中尚未提交的源码文件的相对路径，它们之后可能被还原，所以下次分析时总是视为变动
+     */
+    private Collection<String> uncommittedFiles;
+
+    /**
+     * 分析时配置、classpath和doc-analyzer版本的指纹，它们变化时需要全量分析
+     */
+    private String configFingerprint;
+
+    /**
+     * 类的全限定名与所在源码文件的相对路径
+     */
+    private Map<String, String> typeFiles;
+
+    private Collection<EndpointDto> endpoints;
+
+}
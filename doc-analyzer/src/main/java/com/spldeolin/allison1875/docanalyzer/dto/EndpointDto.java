@@ -26,14 +26,30 @@ public class EndpointDto {
 
     private Boolean isDeprecated;
 
+    /**
+     * 只读，可能被多个endpoint共用
+     */
     private JsonSchema requestBodyJsonSchema;
 
+    /**
+     * 只读，可能被多个endpoint共用
+     */
     private JsonSchema responseBodyJsonSchema;
 
     private String author;
 
     private String sourceCode;
 
+    /**
+     * controller所在源码文件的相对路径
+     */
+    private String controllerFile;
+
+    /**
+     * 这个endpoint依赖的所有源码文件的相对路径，包括controller和请求、响应中涉及到的类，用于增量分析
+     */
+    private Collection<String> dependentFiles;
+
     public String toStringPrettily() {
         String deprecatedNode = null;
         if (isDeprecated) {
@@ -0,0 +1,31 @@
+package com.spldeolin.allison1875.docanalyzer.dto;
+
+import java.util.Collection;
+import java.util.Map;
+import lombok.Data;
+
+/**
+ * 从一个源码文件中提取的、可以在源码文件未变动时复用的信息
+ *
+ * @author Deolin 2020-08-18
+ */
+@Data
+public class FileFactsDto {
+
+    /**
+     * 源码文件中所有类的全限定名
+     */
+    private Collection<String> typeQualifiers;
+
+    /**
+     * 类的全限定名 - 属性名 - 属性的描述和doc-ignore标志（未被SpecificFieldDescriptionsStrategy覆盖），
+     * 生成JsonSchema需要源码文件中的类时才提取，之前为null
+     */
+    private Map<String, Map<String, JsonPropertyDescriptionValueDto>> propertyDescriptions;
+
+    /**
+     * 源码文件中所有controller的全限定名
+     */
+    private Collection<String> controllerQualifiers;
+
+}
@@ -35,6 +35,16 @@ public class JsonPropertyDescriptionValueDto {
 
     private String referencePath;
 
+    /**
+     * 复制一个新的jpdv，valids的列表不与原jpdv共用
+     */
+    public JsonPropertyDescriptionValueDto copy() {
+        return new JsonPropertyDescriptionValueDto().setDescriptionLines(descriptionLines)
+                .setValids(Lists.newArrayList(valids)).setJsonFormatPattern(jsonFormatPattern)
+                .setIsFieldCrossingValids(isFieldCrossingValids).setDocIgnore(docIgnore)
+                .setReferencePath(referencePath);
+    }
+
     public String toStringPrettily() {
         if (isFieldCrossingValids) {
             StringBuilder sb = new StringBuilder(64);
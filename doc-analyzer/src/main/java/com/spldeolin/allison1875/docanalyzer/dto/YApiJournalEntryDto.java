@@ -0,0 +1,70 @@
+package com.spldeolin.allison1875.docanalyzer.dto;
+
+import java.util.Map;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Data;
+
+/**
+ * YApi同步日志中的一行，可以是日志头、计划的操作、操作完成的标记
+ *
+ * @author Deolin 2020-08-20
+ */
+@Data
+@JsonInclude(Include.NON_NULL)
+public class YApiJournalEntryDto {
+
+    public static final String TYPE_PLAN = "plan";
+
+    public static final String TYPE_OPERATION = "op";
+
+    public static final String TYPE_DONE = "done";
+
+    public static final String KIND_ADD_CAT = "addCat";
+
+    public static final String KIND_SAVE = "save";
+
+    public static final String KIND_MOVE_TO_RECYCLE_BIN = "moveToRecycleBin";
+
+    /**
+     * plan、op、done
+     */
+    private String type;
+
+    /**
+     * 日志头：YApi项目TOKEN的指纹，与当前配置不一致时日志无效
+     */
+    private String targetFingerprint;
+
+    /**
+     * 日志头：计划生成时的时间戳
+     */
+    private Long createdAt;
+
+    /**
+     * 操作的序号
+     */
+    private Integer seq;
+
+    /**
+     * 操作的类型：addCat、save、moveToRecycleBin
+     */
+    private String kind;
+
+    /**
+     * addCat：需要创建的分类名；save：接口所属的分类名，分类ID在执行时确定
+     */
+    private String catName;
+
+    /**
+     * save：不含token和catid的接口表单
+     */
+    private Map<String, Object> form;
+
+    /**
+     * moveToRecycleBin：list_menu返回的接口信息
+     */
+    private JsonNode yapiInterface;
+
+}
@@ -0,0 +1,37 @@
+package com.spldeolin.allison1875.docanalyzer.dto;
+
+import java.util.Map;
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Data;
+
+/**
+ * 持久化到本地的YApi镜像
+ *
+ * @author Deolin 2020-08-19
+ */
+@Data
+public class YApiMirrorDto {
+
+    /**
+     * YApi请求URL与项目TOKEN的指纹，与当前配置不一致时镜像无效
+     */
+    private String targetFingerprint;
+
+    /**
+     * 镜像保存时的时间戳
+     */
+    private Long savedAt;
+
+    private Long projectId;
+
+    /**
+     * 分类名与分类ID
+     */
+    private Map<String, Long> catIdsEachName;
+
+    /**
+     * 接口的URL与list_menu返回的接口信息
+     */
+    private Map<String, JsonNode> interfacesEachPath;
+
+}
@@ -1,36 +1,68 @@
 package com.spldeolin.allison1875.docanalyzer.processor;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.expr.AnnotationExpr;
 import com.github.javaparser.resolution.declarations.ResolvedAnnotationDeclaration;
-import com.spldeolin.allison1875.base.collection.ast.AstForest;
+import com.google.common.collect.Lists;
 import com.spldeolin.allison1875.base.constant.QualifierConstants;
 import lombok.extern.log4j.Log4j2;
 
 /**
- * 内聚了 遍历AstForest中每一个controller的功能
+ * 内聚了 收集并遍历AstForest中每一个controller的功能
  *
  * @author Deolin 2020-06-10
  */
 @Log4j2
 class ControllerIterateProc {
 
-    private final AstForest astForest;
+    private final Collection<ClassOrInterfaceDeclaration> controllers = Collections
+            .synchronizedList(Lists.newArrayList());
 
-    public ControllerIterateProc(AstForest astForest) {
-        this.astForest = astForest;
+    /**
+     * 收集参数cu中的每一个controller，以便与其他Proc共用同一次AstForest的遍历，可以被多个线程同时调用
+     *
+     * @return 参数cu中每一个controller的全限定名
+     */
+    public Collection<String> collect(CompilationUnit cu) {
+        List<ClassOrInterfaceDeclaration> controllersInCu = cu
+                .findAll(ClassOrInterfaceDeclaration.class, this::isController);
+        controllers.addAll(controllersInCu);
+        return controllersInCu.stream().map(this::getQualifier).collect(Collectors.toList());
     }
 
+    /**
+     * 按源码文件路径、全限定名的顺序遍历，与collect被调用的顺序（并行遍历AstForest时是线程完成的顺序）无关，
+     * 确保每次分析得到的endpoint顺序一致
+     */
     public void iterate(Consumer<ClassOrInterfaceDeclaration> eachCoid) {
-        astForest
-                .forEach(cu -> cu.findAll(ClassOrInterfaceDeclaration.class, this::isController).forEach(controller -> {
-                    try {
-                        eachCoid.accept(controller);
-                    } catch (Throwable t) {
-                        log.error("controller fail [{}]", controller.getFullyQualifiedName(), t);
-                    }
-                }));
+        List<ClassOrInterfaceDeclaration> sorted;
+        synchronized (controllers) {
+            sorted = Lists.newArrayList(controllers);
+        }
+        sorted.sort(Comparator.comparing(this::getSourcePath).thenComparing(this::getQualifier));
+        sorted.forEach(controller -> {
+            try {
+                eachCoid.accept(controller);
+            } catch (Throwable t) {
+                log.error("controller fail [{}]", controller.getFullyQualifiedName(), t);
+            }
+        });
+    }
+
+    private String getSourcePath(ClassOrInterfaceDeclaration coid) {
+        return coid.findCompilationUnit().flatMap(CompilationUnit::getStorage)
+                .map(storage -> storage.getPath().toString()).orElse("");
+    }
+
+    private String getQualifier(ClassOrInterfaceDeclaration coid) {
+        return coid.getFullyQualifiedName().orElse(coid.getNameAsString());
     }
 
     private boolean isController(ClassOrInterfaceDeclaration coid) {
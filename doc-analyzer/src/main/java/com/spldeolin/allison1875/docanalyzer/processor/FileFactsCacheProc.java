@@ -0,0 +1,262 @@
+package com.spldeolin.allison1875.docanalyzer.processor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.collections4.CollectionUtils;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.CompilationUnit.Storage;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.spldeolin.allison1875.base.util.StringUtils;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
+import com.spldeolin.allison1875.docanalyzer.dto.FileFactsDto;
+import com.spldeolin.allison1875.docanalyzer.dto.JsonPropertyDescriptionValueDto;
+import com.spldeolin.allison1875.docanalyzer.util.ToolVersionUtils;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 内聚了 以源码文件的内容为key，在本地缓存从源码文件中提取的信息的功能
+ *
+ * <pre>
+ * 1. key是doc-analyzer的版本（包括构建时间）与源码文件内容的sha256，源码文件未变动、doc-analyzer未被重新构建时key不变
+ * 2. 命中缓存且不含controller的源码文件不再解析，直接登记缓存的信息；含有controller的源码文件仍需解析，
+ *    因为分析handler的Request Body和Response Body需要解析类型
+ * 3. 属性的描述在生成JsonSchema需要时才提取，提取后补充到已有的缓存中
+ * 4. 缓存文件的总大小超过上限时，淘汰最久未被命中的缓存文件
+ * </pre>
+ *
+ * @author Deolin 2020-08-18
+ */
+@Log4j2
+class FileFactsCacheProc {
+
+    /**
+     * FileFactsDto的结构或提取方式发生变化时，需要修改这个值，使之前的缓存全部失效
+     */
+    private static final String FACTS_VERSION = "4";
+
+    private static final long DEFAULT_MAX_BYTES = 256 * 1024 * 1024;
+
+    private static final String SUFFIX = ".json";
+
+    private final Path cacheDir;
+
+    private final long maxBytes;
+
+    private final String toolVersion;
+
+    /**
+     * 源码文件的绝对路径与缓存的key
+     */
+    private final Map<Path, String> keys = Maps.newConcurrentMap();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong servedCount = new AtomicLong();
+
+    public FileFactsCacheProc() {
+        DocAnalyzerConfig config = DocAnalyzerConfig.getInstance();
+        this.cacheDir = StringUtils.isBlank(config.getFileFactsCachePath()) ? null
+                : Paths.get(config.getFileFactsCachePath());
+        this.maxBytes = Optional.ofNullable(config.getFileFactsCacheMaxBytes()).orElse(DEFAULT_MAX_BYTES);
+        this.toolVersion = FACTS_VERSION + "/" + ToolVersionUtils.getToolVersion();
+    }
+
+    public boolean isEnabled() {
+        return cacheDir != null;
+    }
+
+    /**
+     * 查询每个源码文件的缓存，命中且不含controller的源码文件交给eachServed登记
+     *
+     * @return 仍需解析的源码文件
+     */
+    public Collection<Path> serve(Collection<Path> sourceFiles, BiConsumer<FileFactsDto, Path> eachServed) {
+        List<Path> result = Lists.newArrayList();
+        for (Path sourceFile : sourceFiles) {
+            Path path = sourceFile.toAbsolutePath().normalize();
+            String key = keyOf(path);
+            if (key == null) {
+                result.add(path);
+                continue;
+            }
+
+            FileFactsDto facts = read(key);
+            if (facts == null) {
+                missCount.incrementAndGet();
+                result.add(path);
+            } else {
+                hitCount.incrementAndGet();
+                if (CollectionUtils.isEmpty(facts.getControllerQualifiers())) {
+                    servedCount.incrementAndGet();
+                    eachServed.accept(facts, path);
+                } else {
+                    result.add(path);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查询一个源码文件的缓存，用于遍历AstForest时没有被解析、也没有被serve的源码文件，可以被多个线程同时调用
+     */
+    public Optional<FileFactsDto> lookup(Path sourceFile) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        String key = keyOf(sourceFile.toAbsolutePath().normalize());
+        return key == null ? Optional.empty() : Optional.ofNullable(read(key));
+    }
+
+    /**
+     * 缓存从参数cu中提取的信息，可以被多个线程同时调用
+     */
+    public void put(CompilationUnit cu, FileFactsDto facts) {
+        if (!isEnabled()) {
+            return;
+        }
+        Optional<Path> path = cu.getStorage().map(Storage::getPath).map(one -> one.toAbsolutePath().normalize());
+        String key = path.map(keys::get).orElse(null);
+        if (key == null) {
+            return;
+        }
+        if (toCacheFile(key).toFile().exists()) {
+            return;
+        }
+        write(key, facts, path.get());
+    }
+
+    /**
+     * 将属性的描述补充到源码文件已有的缓存中，可以被多个线程同时调用
+     *
+     * 源码文件没有缓存时（e.g.: 被预扫描排除），不知道它是否含有controller，所以不新建缓存
+     */
+    public void putPropertyDescriptions(Path sourceFile,
+            Map<String, Map<String, JsonPropertyDescriptionValueDto>> propertyDescriptions) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path path = sourceFile.toAbsolutePath().normalize();
+        String key = keyOf(path);
+        FileFactsDto facts = key == null ? null : read(key);
+        if (facts == null) {
+            return;
+        }
+        facts.setPropertyDescriptions(propertyDescriptions);
+        write(key, facts, path);
+    }
+
+    /**
+     * 淘汰超出上限的缓存文件，并报告缓存的命中率
+     */
+    public void evictAndReport() {
+        if (!isEnabled()) {
+            return;
+        }
+        long hit = hitCount.get();
+        long miss = missCount.get();
+        log.info("源码文件信息缓存 命中{}个，未命中{}个，命中率{}%，{}个源码文件无需解析", hit, miss,
+                hit + miss == 0 ? 0 : hit * 100 / (hit + miss), servedCount.get());
+
+        if (!cacheDir.toFile().exists()) {
+            return;
+        }
+        List<Path> cacheFiles;
+        try (Stream<Path> stream = Files.walk(cacheDir)) {
+            cacheFiles = stream.filter(one -> one.toString().endsWith(SUFFIX)).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.warn("List file facts cache fail. cacheDir={}", cacheDir, e);
+            return;
+        }
+        long totalBytes = cacheFiles.stream().mapToLong(one -> one.toFile().length()).sum();
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        cacheFiles.sort(Comparator.comparingLong(one -> one.toFile().lastModified()));
+        int evictedCount = 0;
+        for (Path cacheFile : cacheFiles) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            long length = cacheFile.toFile().length();
+            if (cacheFile.toFile().delete()) {
+                totalBytes -= length;
+                evictedCount++;
+            }
+        }
+        log.info("源码文件信息缓存 淘汰了{}个缓存文件，剩余{}bytes", evictedCount, totalBytes);
+    }
+
+    /**
+     * @return 无法读取源码文件时返回null
+     */
+    private String keyOf(Path path) {
+        String key = keys.get(path);
+        if (key != null) {
+            return key;
+        }
+        try {
+            key = Hashing.sha256().newHasher().putString(toolVersion, StandardCharsets.UTF_8)
+                    .putBytes(Files.readAllBytes(path)).hash().toString();
+        } catch (IOException e) {
+            log.warn("Hash source file fail, parse it. path={}", path, e);
+            return null;
+        }
+        keys.put(path, key);
+        return key;
+    }
+
+    private FileFactsDto read(String key) {
+        Path cacheFile = toCacheFile(key);
+        if (!cacheFile.toFile().exists()) {
+            return null;
+        }
+        try {
+            String json = new String(Files.readAllBytes(cacheFile), StandardCharsets.UTF_8);
+            FileFactsDto result = JsonUtils.toObject(json, FileFactsDto.class);
+            // 记录命中的时间，用于淘汰
+            Files.setLastModifiedTime(cacheFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return result;
+        } catch (Exception e) {
+            log.warn("Read file facts cache fail, discard it. cacheFile={}", cacheFile, e);
+            cacheFile.toFile().delete();
+            return null;
+        }
+    }
+
+    private void write(String key, FileFactsDto facts, Path sourceFile) {
+        Path cacheFile = toCacheFile(key);
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path temp = Files.createTempFile(cacheFile.getParent(), key, ".tmp");
+            Files.write(temp, JsonUtils.toJson(facts).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Write file facts cache fail. path={}", sourceFile, e);
+        }
+    }
+
+    private Path toCacheFile(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+}
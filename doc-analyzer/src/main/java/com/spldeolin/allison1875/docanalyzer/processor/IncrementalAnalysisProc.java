@@ -0,0 +1,451 @@
+package com.spldeolin.allison1875.docanalyzer.processor;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.spldeolin.allison1875.base.BaseConfig;
+import com.spldeolin.allison1875.base.collection.ast.AstForest;
+import com.spldeolin.allison1875.base.collection.vcs.ChangedFileCollector;
+import com.spldeolin.allison1875.base.collection.vcs.ChangedFiles;
+import com.spldeolin.allison1875.base.collection.vcs.GitLoader;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.spldeolin.allison1875.base.util.LoadClassUtils;
+import com.spldeolin.allison1875.base.util.StringUtils;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
+import com.spldeolin.allison1875.docanalyzer.dto.AnalysisStateDto;
+import com.spldeolin.allison1875.docanalyzer.dto.EndpointDto;
+import com.spldeolin.allison1875.docanalyzer.util.JpdvUtils;
+import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils;
+import com.spldeolin.allison1875.docanalyzer.util.ToolVersionUtils;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 内聚了 基于git变动进行增量分析的功能
+ *
+ * <pre>
+ * 1. 读取上次成功分析的状态，找出自那次分析的commit以来新增、修改、删除的源码文件，
+ *    以及那次分析时尚未提交的源码文件（它们之后可能被还原，与HEAD相比没有差异）
+ * 2. 需要重新解析的文件是变动的文件，以及依赖了变动文件的endpoint所依赖的所有文件
+ * 3. 没有受到影响的endpoint直接复用上次的分析结果
+ * </pre>
+ *
+ * @author Deolin 2020-08-16
+ */
+@Log4j2
+class IncrementalAnalysisProc {
+
+    private static final String JSON_SCHEMA_URN_PREFIX = "urn:jsonschema:";
+
+    /**
+     * 以JSON形式的jpdv作为description序列化JsonSchema
+     */
+    private static final ObjectMapper om = JpdvUtils
+            .initViewObjectMapper(JsonUtils.initObjectMapper(new ObjectMapper()), JsonUtils::toJson);
+
+    private final Path statePath;
+
+    private final Path commonPart = BaseConfig.getInstance().getCommonPart().toAbsolutePath().normalize();
+
+    private AnalysisStateDto previous;
+
+    private String headCommitId;
+
+    private Set<String> changedFiles = Sets.newHashSet();
+
+    /**
+     * 本次分析时工作区中尚未提交的源码文件
+     */
+    private Set<String> uncommittedFiles = Sets.newHashSet();
+
+    /**
+     * 本次需要解析的文件，为null时代表全量分析
+     */
+    private Set<Path> filesToParse;
+
+    /**
+     * 上次分析登记、本次未被重新解析的类与源码文件的相对路径，以及本次在源码目录中找到的类
+     */
+    private final Map<String, String> typeFiles = Maps.newHashMap();
+
+    /**
+     * 本次解析登记的类与源码文件，生成JsonSchema期间仍会有类被登记（e.g.: 被预扫描排除的DTO），所以持有引用而不是复制
+     */
+    private Map<String, Path> parsedTypeFiles = Maps.newHashMap();
+
+    /**
+     * 在源码目录中找不到的类（JDK、第三方库的类）
+     */
+    private final Set<String> sourcelessQualifiers = Sets.newHashSet();
+
+    /**
+     * 提交同步前记录的endpoint
+     */
+    private final List<JsonNode> recordedEndpoints = Lists.newArrayList();
+
+    /**
+     * 待保存的状态
+     */
+    private String stateJson;
+
+    public IncrementalAnalysisProc() {
+        String statePath = DocAnalyzerConfig.getInstance().getAnalysisStatePath();
+        this.statePath = StringUtils.isBlank(statePath) ? null : Paths.get(statePath);
+    }
+
+    /**
+     * @return 本次需要解析的源码文件，返回empty时代表需要全量分析
+     */
+    public Optional<Set<Path>> analyzeChanges() {
+        if (statePath == null) {
+            return Optional.empty();
+        }
+
+        GitLoader loader = new GitLoader()
+                .projectPath(Paths.get(Iterables.getFirst(BaseConfig.getInstance().getProjectPaths(), null)));
+        try {
+            loader.openAndLoad();
+            headCommitId = loader.headCommitId();
+            uncommittedFiles = new ChangedFileCollector().collectUncommitted(loader).stream()
+                    .filter(this::isJavaFile).map(this::toRelative).collect(Collectors.toSet());
+
+            previous = loadState();
+            if (previous == null) {
+                log.info("上次成功分析的状态不存在，进行全量分析");
+                return Optional.empty();
+            }
+            if (!calcConfigFingerprint().equals(previous.getConfigFingerprint())) {
+                log.info("配置、classpath或doc-analyzer的版本发生了变化，进行全量分析");
+                previous = null;
+                return Optional.empty();
+            }
+
+            Optional<ChangedFiles> changed = new ChangedFileCollector()
+                    .collectSinceCommit(loader, previous.getCommitId());
+            if (!changed.isPresent()) {
+                log.info("无法确定自commit [{}] 以来的变动，进行全量分析", previous.getCommitId());
+                previous = null;
+                return Optional.empty();
+            }
+
+            changedFiles = changed.get().all().stream().filter(this::isJavaFile).map(this::toRelative)
+                    .collect(Collectors.toSet());
+            filesToParse = changed.get().existing().stream().filter(this::isJavaFile)
+                    .map(one -> one.toAbsolutePath().normalize()).collect(Collectors.toSet());
+            if (previous.getUncommittedFiles() != null) {
+                for (String uncommittedFile : previous.getUncommittedFiles()) {
+                    changedFiles.add(uncommittedFile);
+                    Path path = toAbsolute(uncommittedFile);
+                    if (path.toFile().exists()) {
+                        filesToParse.add(path);
+                    }
+                }
+            }
+
+            int affectedCount = 0;
+            for (EndpointDto endpoint : previous.getEndpoints()) {
+                if (isAffected(endpoint)) {
+                    affectedCount++;
+                    for (String dependentFile : endpoint.getDependentFiles()) {
+                        Path path = toAbsolute(dependentFile);
+                        if (path.toFile().exists()) {
+                            filesToParse.add(path);
+                        }
+                    }
+                }
+            }
+            log.info("自commit [{}] 以来变动了{}个源码文件，影响了{}个endpoint，本次需要解析{}个源码文件", previous.getCommitId(),
+                    changedFiles.size(), affectedCount, filesToParse.size());
+            return Optional.of(filesToParse);
+
+        } catch (IOException | GitAPIException e) {
+            log.error("无法进行增量分析，进行全量分析", e);
+            previous = null;
+            filesToParse = null;
+            return Optional.empty();
+        } finally {
+            loader.close();
+        }
+    }
+
+    /**
+     * 登记本次解析得到的类与源码文件的对应关系，未被本次解析的类则沿用上次的对应关系
+     *
+     * @param parsedTypeFiles 之后仍会被登记新的类，查找依赖时总是以它的最新内容为准
+     */
+    public void registerTypeFiles(Map<String, Path> parsedTypeFiles) {
+        if (previous != null && previous.getTypeFiles() != null) {
+            previous.getTypeFiles().forEach((qualifier, file) -> {
+                if (!changedFiles.contains(file) && !filesToParse.contains(toAbsolute(file))) {
+                    typeFiles.put(qualifier, file);
+                }
+            });
+        }
+        this.parsedTypeFiles = parsedTypeFiles;
+    }
+
+    /**
+     * 找出controller所在源码文件，以及请求、响应中涉及到的所有类的源码文件
+     *
+     * 除了JsonSchema的id和$ref中的类以外，还包括这些类的父类、以及它们声明的属性的类型（如枚举），
+     * 因为Jackson将父类的属性平铺在子类的JsonSchema中，而枚举等类型不会产生JsonSchema的id
+     */
+    public Collection<String> findDependentFiles(Path controllerFile, JsonSchema... jsonSchemas) {
+        Set<String> result = Sets.newLinkedHashSet();
+        Set<String> visited = Sets.newHashSet();
+        result.add(toRelative(controllerFile));
+        for (JsonSchema jsonSchema : jsonSchemas) {
+            if (jsonSchema == null) {
+                continue;
+            }
+            collectQualifiers(jsonSchema.getId(), result, visited);
+            JsonSchemaTraverseUtils.traverse("根节点", jsonSchema, (propertyName, child, parent) -> {
+                collectQualifiers(child.getId(), result, visited);
+                collectQualifiers(child.get$ref(), result, visited);
+            });
+        }
+        return Lists.newArrayList(result);
+    }
+
+    public String toRelative(Path path) {
+        return commonPart.relativize(path.toAbsolutePath().normalize()).toString();
+    }
+
+    /**
+     * 将本次分析得到的endpoint与上次分析中未受影响的endpoint合并
+     */
+    public Collection<EndpointDto> mergeWithPrevious(Collection<EndpointDto> endpoints) {
+        if (previous == null) {
+            return endpoints;
+        }
+        Collection<EndpointDto> result = Lists.newArrayList(endpoints);
+        int reusedCount = 0;
+        for (EndpointDto endpoint : previous.getEndpoints()) {
+            String controllerFile = endpoint.getControllerFile();
+            if (changedFiles.contains(controllerFile) || filesToParse.contains(toAbsolute(controllerFile))) {
+                // 这个controller已被重新分析，或是已被删除
+                continue;
+            }
+            result.add(endpoint);
+            reusedCount++;
+        }
+        log.info("重新分析得到{}个endpoint，复用上次分析的{}个endpoint", endpoints.size(), reusedCount);
+        return result;
+    }
+
+    /**
+     * 记录endpoint，JsonSchema关联的jpdv以JSON的形式写入记录中的description，JsonSchema本身不被修改
+     */
+    public void recordEndpoints(Collection<EndpointDto> endpoints) {
+        if (statePath == null || headCommitId == null) {
+            return;
+        }
+        for (EndpointDto endpoint : endpoints) {
+            recordedEndpoints.add(om.valueToTree(endpoint));
+        }
+    }
+
+    /**
+     * 以记录的endpoint准备待保存的状态
+     */
+    public void prepareState() {
+        if (statePath == null || headCommitId == null) {
+            return;
+        }
+        AnalysisStateDto state = new AnalysisStateDto();
+        state.setCommitId(headCommitId);
+        state.setUncommittedFiles(uncommittedFiles);
+        state.setConfigFingerprint(calcConfigFingerprint());
+        parsedTypeFiles.forEach((qualifier, file) -> typeFiles.put(qualifier, toRelative(file)));
+        state.setTypeFiles(typeFiles);
+        ObjectNode stateNode = om.valueToTree(state);
+        stateNode.putArray("endpoints").addAll(recordedEndpoints);
+        stateJson = JsonUtils.toJson(stateNode);
+    }
+
+    /**
+     * 分析及同步均成功后，保存本次的状态
+     */
+    public void saveState() {
+        if (stateJson == null) {
+            return;
+        }
+        try {
+            Path parent = statePath.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, statePath.getFileName().toString(), ".tmp");
+            Files.write(temp, stateJson.getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, statePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("分析状态已保存到[{}]，commit [{}]", statePath, headCommitId);
+        } catch (IOException e) {
+            log.error("分析状态保存失败 statePath={}", statePath, e);
+        }
+    }
+
+    private AnalysisStateDto loadState() throws IOException {
+        if (!statePath.toFile().exists()) {
+            return null;
+        }
+        String json = new String(Files.readAllBytes(statePath), StandardCharsets.UTF_8);
+        AnalysisStateDto state = JsonUtils.toObject(json, AnalysisStateDto.class);
+        for (EndpointDto endpoint : state.getEndpoints()) {
+            if (endpoint.getRequestBodyJsonSchema() != null) {
+                JpdvUtils.readFromDescriptions(endpoint.getRequestBodyJsonSchema());
+            }
+            if (endpoint.getResponseBodyJsonSchema() != null) {
+                JpdvUtils.readFromDescriptions(endpoint.getResponseBodyJsonSchema());
+            }
+        }
+        return state;
+    }
+
+    private boolean isAffected(EndpointDto endpoint) {
+        Collection<String> dependentFiles = endpoint.getDependentFiles();
+        if (dependentFiles == null) {
+            return true;
+        }
+        for (String dependentFile : dependentFiles) {
+            if (changedFiles.contains(dependentFile)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * e.g.: urn:jsonschema:com:spldeolin:RequestResult<com:spldeolin:UserVo>
+     */
+    private void collectQualifiers(String jsonSchemaId, Collection<String> dependentFiles, Set<String> visited) {
+        if (jsonSchemaId == null || !jsonSchemaId.startsWith(JSON_SCHEMA_URN_PREFIX)) {
+            return;
+        }
+        String canonical = jsonSchemaId.substring(JSON_SCHEMA_URN_PREFIX.length()).replace(':', '.');
+        for (String qualifier : canonical.split("[<>,\\s\\[\\]]+")) {
+            collectTypeFiles(qualifier, dependentFiles, visited);
+        }
+    }
+
+    /**
+     * 收集类所在的源码文件，再通过反射找到它的父类、它声明的属性的类型，同样收集它们所在的源码文件
+     *
+     * 不在源码中声明的类（JDK、第三方库的类）不会被收集，也不会继续查找
+     */
+    private void collectTypeFiles(String qualifier, Collection<String> dependentFiles, Set<String> visited) {
+        if (!visited.add(qualifier)) {
+            return;
+        }
+        String file = findTypeFile(qualifier);
+        if (file == null) {
+            return;
+        }
+        dependentFiles.add(file);
+
+        Class<?> clazz;
+        try {
+            clazz = LoadClassUtils.loadClass(qualifier, this.getClass().getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.debug("类[{}]无法被加载，不查找它的父类和属性", qualifier);
+            return;
+        }
+        Set<Class<?>> referenced = Sets.newHashSet();
+        collectClasses(clazz.getGenericSuperclass(), referenced);
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                collectClasses(field.getGenericType(), referenced);
+            }
+        }
+        for (Class<?> one : referenced) {
+            collectTypeFiles(one.getName().replace('$', '.'), dependentFiles, visited);
+        }
+    }
+
+    /**
+     * 依次从本次解析登记的类、上次分析登记的类、源码目录中查找类所在的源码文件
+     */
+    private String findTypeFile(String qualifier) {
+        Path parsed = parsedTypeFiles.get(qualifier);
+        if (parsed != null) {
+            return toRelative(parsed);
+        }
+        String file = typeFiles.get(qualifier);
+        if (file != null || sourcelessQualifiers.contains(qualifier)) {
+            return file;
+        }
+        Optional<Path> sourceFile = AstForest.getInstance().findSourceFile(qualifier);
+        if (!sourceFile.isPresent()) {
+            sourcelessQualifiers.add(qualifier);
+            return null;
+        }
+        file = toRelative(sourceFile.get());
+        typeFiles.put(qualifier, file);
+        return file;
+    }
+
+    private void collectClasses(Type type, Collection<Class<?>> classes) {
+        if (type instanceof Class) {
+            Class<?> clazz = (Class<?>) type;
+            while (clazz.isArray()) {
+                clazz = clazz.getComponentType();
+            }
+            if (!clazz.isPrimitive()) {
+                classes.add(clazz);
+            }
+        } else if (type instanceof ParameterizedType) {
+            collectClasses(((ParameterizedType) type).getRawType(), classes);
+            for (Type typeArgument : ((ParameterizedType) type).getActualTypeArguments()) {
+                collectClasses(typeArgument, classes);
+            }
+        } else if (type instanceof GenericArrayType) {
+            collectClasses(((GenericArrayType) type).getGenericComponentType(), classes);
+        } else if (type instanceof WildcardType) {
+            for (Type upperBound : ((WildcardType) type).getUpperBounds()) {
+                collectClasses(upperBound, classes);
+            }
+        }
+    }
+
+    /**
+     * 指纹的内容包括doc-analyzer配置、全局配置、classpath和doc-analyzer的版本，任意一项变化都需要全量分析
+     */
+    private String calcConfigFingerprint() {
+        Map<String, Object> content = Maps.newLinkedHashMap();
+        content.put("docAnalyzerConfig", DocAnalyzerConfig.getInstance());
+        content.put("baseConfig", BaseConfig.getInstance());
+        content.put("classPath", System.getProperty("java.class.path"));
+        content.put("toolVersion", ToolVersionUtils.getToolVersion());
+        return Hashing.sha256().hashString(JsonUtils.toJson(content), StandardCharsets.UTF_8).toString();
+    }
+
+    private boolean isJavaFile(Path path) {
+        return path.toString().endsWith(".java");
+    }
+
+    private Path toAbsolute(String relativePath) {
+        return commonPart.resolve(relativePath).normalize();
+    }
+
+}
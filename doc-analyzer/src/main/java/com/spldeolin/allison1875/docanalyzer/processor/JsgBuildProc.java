@@ -6,7 +6,13 @@ import java.lang.reflect.AnnotatedParameterizedType;
 import java.lang.reflect.AnnotatedType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.validation.constraints.AssertTrue;
 import org.springframework.core.annotation.AnnotatedElementUtils;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
@@ -16,80 +22,184 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.fasterxml.jackson.databind.introspect.Annotated;
 import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
 import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchemaGenerator;
 import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.CompilationUnit.Storage;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.FieldDeclaration;
 import com.github.javaparser.ast.body.TypeDeclaration;
 import com.github.javaparser.ast.body.VariableDeclarator;
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
 import com.spldeolin.allison1875.base.collection.ast.AstForest;
 import com.spldeolin.allison1875.base.exception.QualifierAbsentException;
 import com.spldeolin.allison1875.base.util.JsonUtils;
 import com.spldeolin.allison1875.base.util.StringUtils;
 import com.spldeolin.allison1875.base.util.ast.JavadocDescriptions;
+import com.spldeolin.allison1875.docanalyzer.dto.FileFactsDto;
 import com.spldeolin.allison1875.docanalyzer.dto.JsonPropertyDescriptionValueDto;
 import com.spldeolin.allison1875.docanalyzer.dto.ValidatorDto;
 import com.spldeolin.allison1875.docanalyzer.strategy.AnalyzeCustomValidationStrategy;
+import com.spldeolin.allison1875.docanalyzer.util.JpdvUtils;
+import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils;
+import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils.StoppableJsonSchemaHandler;
+import lombok.Getter;
 import lombok.extern.log4j.Log4j2;
 
 /**
  * 内聚了 解析得到所有枚举、属性信息 和 生成自定义JsonSchemaGenerator对象的功能
  *
+ * 遍历AstForest时只登记每个类所在的源码文件，生成JsonSchema的过程第一次需要某个类的属性信息时，
+ * 才从源码文件信息的缓存中读取（未命中时单独解析源码文件）它所在源码文件的属性描述，再应用SpecificFieldDescriptionsStrategy
+ *
  * @author Deolin 2020-06-10
  */
 @Log4j2
 class JsgBuildProc {
 
-    private final AstForest astForest;
-
     private final AnalyzeCustomValidationStrategy analyzeCustomValidationStrategy;
 
     private final Table<String, String, String> specificFieldDescriptions;
 
-    private final Table<String, String, JsonPropertyDescriptionValueDto> jpdvs = HashBasedTable.create();
+    private final FileFactsCacheProc factsCacheProcessor;
+
+    /**
+     * 源码文件 - 类的全限定名 - 属性名 - 属性的描述和doc-ignore标志（未被SpecificFieldDescriptionsStrategy覆盖），
+     * 只包含生成JsonSchema时需要的类所在的源码文件
+     */
+    private final Map<Path, Map<String, Map<String, JsonPropertyDescriptionValueDto>>> rawDescriptionsEachFile = Maps
+            .newConcurrentMap();
+
+    /**
+     * 类的全限定名 - 属性名 - 属性信息，只包含生成JsonSchema时需要的类
+     */
+    private final Map<String, Map<String, JsonPropertyDescriptionValueDto>> jpdvs = Maps.newConcurrentMap();
+
+    /**
+     * 类的全限定名与所在源码文件的绝对路径
+     */
+    @Getter
+    private final Map<String, Path> typeFiles = Maps.newConcurrentMap();
 
-    public JsgBuildProc(AstForest astForest, AnalyzeCustomValidationStrategy analyzeCustomValidationStrategy,
-            Table<String, String, String> specificFieldDescriptions) {
-        this.astForest = astForest;
+    /**
+     * 生成JsonSchema时写入description的占位符与对应的jpdv，生成后由jpdvAttacher替换为关联
+     */
+    private final Map<String, JsonPropertyDescriptionValueDto> jpdvsEachPlaceholder = Maps.newConcurrentMap();
+
+    /**
+     * 属性（Field或Method）与它的占位符，同一个属性被多次解析时复用同一个占位符，占位符的数量不会超过属性的数量
+     */
+    private final Map<AnnotatedElement, String> placeholdersEachMember = Maps.newConcurrentMap();
+
+    private final AtomicInteger placeholderCount = new AtomicInteger();
+
+    public JsgBuildProc(AnalyzeCustomValidationStrategy analyzeCustomValidationStrategy,
+            Table<String, String, String> specificFieldDescriptions, FileFactsCacheProc factsCacheProcessor) {
         this.analyzeCustomValidationStrategy = analyzeCustomValidationStrategy;
         this.specificFieldDescriptions = specificFieldDescriptions;
+        this.factsCacheProcessor = factsCacheProcessor;
     }
 
-    public JsonSchemaGenerator analyzeAstAndBuildJsg() {
-        analyze(astForest);
-        return buildJsg();
+    /**
+     * 登记参数cu中每个类所在的源码文件，可以被多个线程同时调用
+     *
+     * @return 从cu中提取的信息，不含controller的信息，也不含属性的描述
+     */
+    public FileFactsDto analyze(CompilationUnit cu) {
+        FileFactsDto facts = new FileFactsDto();
+        facts.setTypeQualifiers(Lists.newArrayList());
+        for (TypeDeclaration<?> td : cu.findAll(TypeDeclaration.class)) {
+            td.getFullyQualifiedName().ifPresent(qualifier -> facts.getTypeQualifiers().add(qualifier));
+        }
+        register(facts, cu.getStorage().map(Storage::getPath).orElse(null));
+        return facts;
     }
 
-    private void analyze(AstForest astForest) {
-        for (CompilationUnit cu : astForest) {
-            for (TypeDeclaration<?> td : cu.findAll(TypeDeclaration.class)) {
-                td.ifClassOrInterfaceDeclaration(coid -> collectPropertyDescriptions(coid, jpdvs));
-            }
+    /**
+     * 登记从源码文件中提取的信息，源码文件未变动时，可以代替对源码文件的解析
+     */
+    public void register(FileFactsDto facts, Path file) {
+        if (file != null) {
+            facts.getTypeQualifiers().forEach(qualifier -> typeFiles.put(qualifier, file));
         }
     }
 
     private void collectPropertyDescriptions(ClassOrInterfaceDeclaration coid,
-            Table<String, String, JsonPropertyDescriptionValueDto> table) {
+            Map<String, Map<String, JsonPropertyDescriptionValueDto>> descriptions) {
         String qualifier = coid.getFullyQualifiedName().orElseThrow(QualifierAbsentException::new);
-        String javabeanQualifier = qualifier;
+        Map<String, JsonPropertyDescriptionValueDto> descriptionsEachVar = Maps.newHashMap();
         for (FieldDeclaration field : coid.getFields()) {
             Collection<String> javadocDescLines = JavadocDescriptions.getEveryLine(field);
             for (VariableDeclarator var : field.getVariables()) {
-                JsonPropertyDescriptionValueDto jpdv = new JsonPropertyDescriptionValueDto();
-                String varName = var.getNameAsString();
-                String description = specificFieldDescriptions.get(javabeanQualifier, varName);
-                if (description == null) {
-                    jpdv.setDescriptionLines(javadocDescLines);
-                } else {
-                    jpdv.setDescriptionLines(Lists.newArrayList(description));
-                }
-                jpdv.setDocIgnore(findIgnoreFlag(javadocDescLines));
-                table.put(javabeanQualifier, varName, jpdv);
+                JsonPropertyDescriptionValueDto raw = new JsonPropertyDescriptionValueDto();
+                raw.setDescriptionLines(javadocDescLines);
+                raw.setDocIgnore(findIgnoreFlag(javadocDescLines));
+                descriptionsEachVar.put(var.getNameAsString(), raw);
             }
         }
+        descriptions.put(qualifier, descriptionsEachVar);
+    }
+
+    /**
+     * 生成JsonSchema的过程第一次需要某个类的属性信息时，才提取属性的描述，并应用SpecificFieldDescriptionsStrategy，
+     * 可以被多个线程同时调用，只有需要同一个类的线程之间会互相等待
+     */
+    private JsonPropertyDescriptionValueDto findJpdv(String qualifier, String varName) {
+        return jpdvs.computeIfAbsent(qualifier, this::buildJpdvs).get(varName);
+    }
+
+    private Map<String, JsonPropertyDescriptionValueDto> buildJpdvs(String qualifier) {
+        Map<String, JsonPropertyDescriptionValueDto> jpdvsEachVar = Maps.newHashMap();
+        for (Entry<String, JsonPropertyDescriptionValueDto> entry : findRawDescriptions(qualifier).entrySet()) {
+            String fieldName = entry.getKey();
+            JsonPropertyDescriptionValueDto raw = entry.getValue();
+            JsonPropertyDescriptionValueDto jpdv = new JsonPropertyDescriptionValueDto();
+            String description = specificFieldDescriptions.get(qualifier, fieldName);
+            if (description == null) {
+                jpdv.setDescriptionLines(raw.getDescriptionLines());
+            } else {
+                jpdv.setDescriptionLines(Lists.newArrayList(description));
+            }
+            jpdv.setDocIgnore(raw.getDocIgnore());
+            jpdvsEachVar.put(fieldName, jpdv);
+        }
+        return jpdvsEachVar;
+    }
+
+    private Map<String, JsonPropertyDescriptionValueDto> findRawDescriptions(String qualifier) {
+        Path file = typeFiles.get(qualifier);
+        if (file == null) {
+            // 增量分析、预扫描排除的源码文件中的类
+            file = AstForest.getInstance().findSourceFile(qualifier).orElse(null);
+        }
+        if (file == null) {
+            return Collections.emptyMap();
+        }
+        return rawDescriptionsEachFile.computeIfAbsent(file, this::extractRawDescriptions)
+                .getOrDefault(qualifier, Collections.emptyMap());
+    }
+
+    /**
+     * 优先使用源码文件信息的缓存，缓存中没有属性的描述时，以AstForest的解析配置解析源码文件，并将提取的描述补充到缓存中
+     */
+    private Map<String, Map<String, JsonPropertyDescriptionValueDto>> extractRawDescriptions(Path file) {
+        Optional<FileFactsDto> cached = factsCacheProcessor.lookup(file);
+        if (cached.isPresent() && cached.get().getPropertyDescriptions() != null) {
+            return cached.get().getPropertyDescriptions();
+        }
+        Optional<CompilationUnit> cu = AstForest.getInstance().parseSourceFile(file);
+        if (!cu.isPresent()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<String, JsonPropertyDescriptionValueDto>> result = Maps.newHashMap();
+        for (ClassOrInterfaceDeclaration coid : cu.get().findAll(ClassOrInterfaceDeclaration.class)) {
+            collectPropertyDescriptions(coid, result);
+        }
+        log.debug("Property descriptions collected. [{}]", file);
+        factsCacheProcessor.putPropertyDescriptions(file, result);
+        return result;
     }
 
     private boolean findIgnoreFlag(Collection<String> javadocDescLines) {
@@ -117,7 +227,7 @@ class JsgBuildProc {
             public boolean hasIgnoreMarker(AnnotatedMember m) {
                 String className = m.getDeclaringClass().getName().replace('$', '.');
                 String fieldNameMight = m.getName();
-                JsonPropertyDescriptionValueDto jpdv = jpdvs.get(className, fieldNameMight);
+                JsonPropertyDescriptionValueDto jpdv = findJpdv(className, fieldNameMight);
                 if (jpdv != null) {
                     return jpdv.getDocIgnore();
                 }
@@ -127,6 +237,17 @@ class JsgBuildProc {
 
             @Override
             public String findPropertyDescription(Annotated annotated) {
+                AnnotatedElement member = annotated.getAnnotated();
+                if (member == null) {
+                    return toPlaceholder(buildJpdv(annotated));
+                }
+                return placeholdersEachMember.computeIfAbsent(member, key -> toPlaceholder(buildJpdv(annotated)));
+            }
+
+            /**
+             * jpdv只取决于属性本身（描述、校验注解、JsonFormat），所以同一个属性只需要构建一次
+             */
+            private JsonPropertyDescriptionValueDto buildJpdv(Annotated annotated) {
                 Field field = findFieldEvenIfAnnotatedMethod(annotated.getAnnotated());
                 ValidProc validProc = new ValidProc(analyzeCustomValidationStrategy, annotated.getAnnotated())
                         .process();
@@ -138,17 +259,16 @@ class JsgBuildProc {
                         jpdv.setIsFieldCrossingValids(true);
                         jpdv.setValids(validProc.getValids());
                     }
-                    return JsonUtils.toJson(jpdv);
+                    return jpdv;
                 }
 
                 Class<?> clazz = field.getDeclaringClass();
                 String className = clazz.getName().replace('$', '.');
                 String fieldNameMight = field.getName();
 
-                JsonPropertyDescriptionValueDto jpdv = jpdvs.get(className, fieldNameMight);
-                if (jpdv == null) {
-                    jpdv = new JsonPropertyDescriptionValueDto();
-                }
+                // 同一个属性可能被多次解析（如不同的泛型参数），所以复制后再修改
+                JsonPropertyDescriptionValueDto jpdv = findJpdv(className, fieldNameMight);
+                jpdv = jpdv == null ? new JsonPropertyDescriptionValueDto() : jpdv.copy();
 
                 jpdv.setValids(validProc.getValids());
 
@@ -177,7 +297,7 @@ class JsgBuildProc {
                     jpdv.setJsonFormatPattern(jsonFormat.pattern());
                 }
 
-                return JsonUtils.toJson(jpdv);
+                return jpdv;
             }
 
             private Field findFieldEvenIfAnnotatedMethod(AnnotatedElement annotated) {
@@ -211,4 +331,37 @@ class JsgBuildProc {
         return jsg;
     }
 
+    /**
+     * 将jsg生成的JsonSchema中，description里的占位符替换为对jpdv的关联
+     *
+     * 返回的处理过程只关联子节点，根节点需要另外调用attachJpdv
+     */
+    public StoppableJsonSchemaHandler jpdvAttacher() {
+        return (propertyName, jsonSchema, parentJsonSchema, depth) -> {
+            attachJpdv(jsonSchema);
+            return true;
+        };
+    }
+
+    public void attachJpdv(JsonSchema jsonSchema) {
+        String description = jsonSchema.getDescription();
+        if (description == null) {
+            return;
+        }
+        JsonPropertyDescriptionValueDto jpdv = jpdvsEachPlaceholder.get(description);
+        if (jpdv != null) {
+            JpdvUtils.put(jsonSchema, jpdv);
+            jsonSchema.setDescription(null);
+        }
+    }
+
+    /**
+     * findPropertyDescription只能返回字符串，以占位符代替jpdv，避免将jpdv转化为JSON再解析回来
+     */
+    private String toPlaceholder(JsonPropertyDescriptionValueDto jpdv) {
+        String placeholder = "jpdv#" + placeholderCount.incrementAndGet();
+        jpdvsEachPlaceholder.put(placeholder, jpdv);
+        return placeholder;
+    }
+
 }
@@ -0,0 +1,107 @@
+package com.spldeolin.allison1875.docanalyzer.processor;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
+import com.fasterxml.jackson.module.jsonSchema.JsonSchemaGenerator;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.spldeolin.allison1875.base.util.exception.JsonSchemaException;
+import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaGenerateUtils;
+import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 以类型的规范名为key，缓存RequestBody和ResponseBody的JsonSchema
+ *
+ * <pre>
+ * 1. describe先解析为JavaType，不同写法的describe（如内部类）对应同一个规范名，解析结果同样被缓存
+ * 2. 缓存的是关联了jpdv、且处理过ReferenceSchema后的JsonSchema，之后它不会再被修改
+ * 3. 返回的是缓存中的JsonSchema本身，多个endpoint共用同一个JsonSchema，不需要复制
+ * 4. 无法生成JsonSchema的类型同样被缓存，不会重复尝试
+ * </pre>
+ *
+ * 嵌套的DTO不单独缓存JsonSchema：同一个jsg生成JsonSchema时，嵌套类型的序列化器（包括属性和描述的解析结果）已由jsg的ObjectMapper缓存，
+ * 而ReferenceSchema的$ref指向的是根类型中首次出现该类型的位置，单独缓存的子JsonSchema无法直接拼接
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+class JsonSchemaCacheProc {
+
+    private static final ObjectMapper om = JsonUtils.initObjectMapper(new ObjectMapper());
+
+    private final JsonSchemaGenerator jsg;
+
+    private final JsgBuildProc jsgProcessor;
+
+    private final Cache<String, Optional<String>> canonicalNames = CacheBuilder.newBuilder().recordStats().build();
+
+    private final Cache<String, Optional<JsonSchema>> jsonSchemas = CacheBuilder.newBuilder().recordStats().build();
+
+    public JsonSchemaCacheProc(JsonSchemaGenerator jsg, JsgBuildProc jsgProcessor) {
+        this.jsg = jsg;
+        this.jsgProcessor = jsgProcessor;
+    }
+
+    /**
+     * 获取describe对应的JsonSchema，无法生成时抛出JsonSchemaException
+     */
+    public JsonSchema generate(String describe) throws JsonSchemaException {
+        try {
+            Optional<String> canonicalName = canonicalNames.get(describe, () -> canonicalName(describe));
+            if (!canonicalName.isPresent()) {
+                throw new JsonSchemaException(new IllegalArgumentException("无法解析的类型 " + describe));
+            }
+            Optional<JsonSchema> jsonSchema = jsonSchemas
+                    .get(canonicalName.get(), () -> generate0(canonicalName.get()));
+            if (!jsonSchema.isPresent()) {
+                throw new JsonSchemaException(new IllegalArgumentException("无法生成JsonSchema " + describe));
+            }
+            return jsonSchema.get();
+        } catch (ExecutionException e) {
+            throw new JsonSchemaException(e.getCause());
+        } catch (JsonSchemaException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new JsonSchemaException(e);
+        }
+    }
+
+    public void report() {
+        CacheStats stats = jsonSchemas.stats();
+        log.info("JsonSchema缓存 命中{}次，未命中{}次，命中率{}%，{}个类型，describe解析 命中{}次，未命中{}次", stats.hitCount(),
+                stats.missCount(), Math.round(stats.hitRate() * 100), jsonSchemas.size(),
+                canonicalNames.stats().hitCount(), canonicalNames.stats().missCount());
+    }
+
+    private Optional<String> canonicalName(String describe) {
+        try {
+            return Optional.of(JsonSchemaGenerateUtils.constructType(describe).toCanonical());
+        } catch (JsonSchemaException e) {
+            return Optional.empty();
+        }
+    }
+
+    private Optional<JsonSchema> generate0(String canonicalName) {
+        JsonSchema jsonSchema;
+        try {
+            JavaType javaType = om.getTypeFactory().constructFromCanonical(canonicalName);
+            jsonSchema = jsg.generateSchema(javaType);
+        } catch (Throwable e) {
+            log.warn("Cannot generate the json schema, canonicalName={}, reason={}", canonicalName, e.getMessage());
+            return Optional.empty();
+        }
+        // 关联jpdv与处理ReferenceSchema在同一次遍历中完成，每个节点先关联jpdv，再设置referencePath，
+        // 不限制深度，否则未遍历到的节点会残留jpdv的占位符
+        jsgProcessor.attachJpdv(jsonSchema);
+        JsonSchemaTraverseUtils.traverse("根节点", jsonSchema, JsonSchemaTraverseUtils.UNLIMITED_DEPTH,
+                jsgProcessor.jpdvAttacher(), new ReferenceSchemaProc(jsonSchema).handler());
+        return Optional.of(jsonSchema);
+    }
+
+}
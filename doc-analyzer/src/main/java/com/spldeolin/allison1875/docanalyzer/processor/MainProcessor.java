@@ -1,12 +1,22 @@
 package com.spldeolin.allison1875.docanalyzer.processor;
 
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchemaGenerator;
+import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.nodeTypes.NodeWithJavadoc;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.spldeolin.allison1875.base.BaseConfig;
+import com.spldeolin.allison1875.base.classloader.ModuleJavaSymbolSolverFactory;
+import com.spldeolin.allison1875.base.classloader.TypeNameResolver;
 import com.spldeolin.allison1875.base.collection.ast.AstForest;
 import com.spldeolin.allison1875.base.exception.QualifierAbsentException;
 import com.spldeolin.allison1875.base.util.LoadClassUtils;
@@ -14,10 +24,12 @@ import com.spldeolin.allison1875.base.util.StringUtils;
 import com.spldeolin.allison1875.base.util.ast.Annotations;
 import com.spldeolin.allison1875.base.util.ast.Authors;
 import com.spldeolin.allison1875.base.util.ast.JavadocDescriptions;
+import com.spldeolin.allison1875.base.util.ast.Locations;
 import com.spldeolin.allison1875.base.util.ast.MethodQualifiers;
 import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
 import com.spldeolin.allison1875.docanalyzer.builder.EndpointDtoBuilder;
 import com.spldeolin.allison1875.docanalyzer.dto.EndpointDto;
+import com.spldeolin.allison1875.docanalyzer.dto.FileFactsDto;
 import com.spldeolin.allison1875.docanalyzer.strategy.AnalyzeCustomValidationStrategy;
 import com.spldeolin.allison1875.docanalyzer.strategy.DefaultAnalyzeCustomValidationStrategy;
 import com.spldeolin.allison1875.docanalyzer.strategy.DefaultObtainConcernedResponseBodyStrategy;
@@ -56,16 +68,75 @@ public class MainProcessor {
     public void process() {
         AstForest astForest = AstForest.getInstance();
 
-        // 首次遍历并解析astForest，然后构建jsg对象，jsg对象为后续生成JsonSchema所需
-        JsgBuildProc jsgProcessor = new JsgBuildProc(astForest, analyzeCustomValidationStrategy,
-                specificFieldDescriptionsStrategy.provideSpecificFieldDescriptions());
-        JsonSchemaGenerator jsg = jsgProcessor.analyzeAstAndBuildJsg();
+        // 增量分析时，只解析自上次成功分析以来发生变动的文件，以及受其影响的endpoint所依赖的文件
+        IncrementalAnalysisProc incrementalProcessor = new IncrementalAnalysisProc();
+        incrementalProcessor.analyzeChanges().ifPresent(astForest::onlyFiles);
+
+        // 与解析源码同时加载YApi的镜像，之后每构建完一个handler的endpoint就提交同步，不等待分析结束
+        YApiFanOutProc syncProcessor = new YApiFanOutProc();
+        syncProcessor.start();
+        Collection<EndpointDto> allEndpoints;
+        try {
+            allEndpoints = analyze(astForest, incrementalProcessor, syncProcessor);
+        } catch (RuntimeException | Error e) {
+            // 分析失败时，已提交的endpoint照常同步，但不移动任何接口
+            syncProcessor.abort();
+            throw e;
+        }
+
+        // 所有endpoint都已提交，等待同步完成后才保存状态
+        syncProcessor.finish();
+        incrementalProcessor.saveState();
+
+        log.info(allEndpoints.size());
+    }
+
+    private Collection<EndpointDto> analyze(AstForest astForest, IncrementalAnalysisProc incrementalProcessor,
+            YApiFanOutProc syncProcessor) {
+        // 预扫描，排除不可能与文档相关的源码文件
+        if (Boolean.TRUE.equals(DocAnalyzerConfig.getInstance().getEnablePreScan())) {
+            astForest.onlyFiles(new PreScanProc().scan(astForest.listSourceFiles()));
+        }
+
+        FileFactsCacheProc factsCacheProcessor = new FileFactsCacheProc();
+        JsgBuildProc jsgProcessor = new JsgBuildProc(analyzeCustomValidationStrategy,
+                specificFieldDescriptionsStrategy.provideSpecificFieldDescriptions(), factsCacheProcessor);
+        ControllerIterateProc controllerIterateProcessor = new ControllerIterateProc();
+
+        // 未变动且不含controller的源码文件，直接使用缓存的信息，无需解析
+        if (factsCacheProcessor.isEnabled()) {
+            astForest.onlyFiles(factsCacheProcessor.serve(astForest.listSourceFiles(), jsgProcessor::register));
+        }
+
+        // 仅遍历一次astForest，每个cu既用于登记类所在的源码文件，也用于收集controller（是否是controller由Processor判断），
+        // 属性的描述在生成JsonSchema时按需提取
+        Consumer<CompilationUnit> eachCu = cu -> {
+            FileFactsDto facts = jsgProcessor.analyze(cu);
+            facts.setControllerQualifiers(controllerIterateProcessor.collect(cu));
+            factsCacheProcessor.put(cu, facts);
+        };
+        Integer parallelism = BaseConfig.getInstance().getAstForestParallelism();
+        if (parallelism == null) {
+            astForest.forEach(eachCu);
+        } else {
+            astForest.forEachParallel(eachCu, parallelism);
+        }
+        factsCacheProcessor.evictAndReport();
+        incrementalProcessor.registerTypeFiles(jsgProcessor.getTypeFiles());
+
+        // 登记源码中声明的类型，反射controller和生成JsonSchema时，据此推算内部类的二进制名
+        TypeNameResolver.registerSourceTypes(jsgProcessor.getTypeFiles().keySet());
+
+        // 构建jsg对象，jsg对象为后续生成JsonSchema所需，生成JsonSchema时才会按需得到属性信息
+        JsonSchemaGenerator jsg = jsgProcessor.buildJsg();
+
+        // 相同类型的RequestBody、ResponseBody只生成一次JsonSchema
+        JsonSchemaCacheProc jsonSchemaCacheProcessor = new JsonSchemaCacheProc(jsg, jsgProcessor);
 
         // 收集endpoint
         Collection<EndpointDto> endpoints = Lists.newArrayList();
 
-        // 再次遍历astForest，并遍历每个cu下的每个controller（是否是controller由Processor判断）
-        ControllerIterateProc controllerIterateProcessor = new ControllerIterateProc(astForest.reset());
+        // 遍历收集到的每个controller
         controllerIterateProcessor.iterate(controller -> {
 
             // doc-ignore标志
@@ -134,24 +205,44 @@ public class MainProcessor {
                 builder.combinedVerbs(requestMappingProcessor.getCombinedVerbs());
 
                 // 分析Request Body
-                RequestBodyProc requestBodyAnalyzeProcessor = new RequestBodyProc(jsg);
+                RequestBodyProc requestBodyAnalyzeProcessor = new RequestBodyProc(jsonSchemaCacheProcessor);
                 builder.requestBodyJsonSchema(requestBodyAnalyzeProcessor.analyze(handler));
 
                 // 分析Response Body
-                ResponseBodyProc responseBodyAnalyzeProcessor = new ResponseBodyProc(jsg,
+                ResponseBodyProc responseBodyAnalyzeProcessor = new ResponseBodyProc(jsonSchemaCacheProcessor,
                         obtainConcernedResponseBodyStrategy);
                 builder.responseBodyJsonSchema(responseBodyAnalyzeProcessor.analyze(controller, handler));
 
-                // 构建EndpointDto
-                endpoints.addAll(builder.build());
+                // 记录endpoint所依赖的源码文件，用于增量分析
+                Path controllerFile = Locations.getAbsolutePath(controller);
+                builder.controllerFile(incrementalProcessor.toRelative(controllerFile));
+                builder.dependentFiles(incrementalProcessor
+                        .findDependentFiles(controllerFile, builder.requestBodyJsonSchema(),
+                                builder.responseBodyJsonSchema()));
+
+                // 构建EndpointDto，记录后逐个提交同步
+                Collection<EndpointDto> built = builder.build();
+                endpoints.addAll(built);
+                incrementalProcessor.recordEndpoints(built);
+                built.forEach(syncProcessor::accept);
 
             });
         });
 
-        // 同步到YApi
-        new YApiSyncProc(endpoints).process();
-
-        log.info(endpoints.size());
+        ModuleJavaSymbolSolverFactory.reportMemo();
+        TypeNameResolver.getInstance().report();
+        jsonSchemaCacheProcessor.report();
+
+        // 合并未受影响的endpoint，它们同样需要提交同步
+        Collection<EndpointDto> allEndpoints = incrementalProcessor.mergeWithPrevious(endpoints);
+        Set<EndpointDto> analyzed = Sets.newIdentityHashSet();
+        analyzed.addAll(endpoints);
+        List<EndpointDto> reused = allEndpoints.stream().filter(one -> !analyzed.contains(one))
+                .collect(Collectors.toList());
+        incrementalProcessor.recordEndpoints(reused);
+        reused.forEach(syncProcessor::accept);
+        incrementalProcessor.prepareState();
+        return allEndpoints;
     }
 
     private String findControllerCat(ClassOrInterfaceDeclaration controller) {
@@ -0,0 +1,152 @@
+package com.spldeolin.allison1875.docanalyzer.processor;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 内聚了 在解析之前通过扫描源码文件的字节，排除不可能与文档相关的源码文件的功能
+ *
+ * <pre>
+ * 1. 含有@RestController、@Controller、@RequestMapping的源码文件是起点，只关心其中类的声明和handler的签名中出现的标识符
+ * 2. 根据大写字母开头的标识符，找到同名的源码文件，这些源码文件中出现的所有标识符也会被关心，直到没有新的源码文件为止
+ * 3. 其余源码文件不会被解析，确实需要时由JavaSymbolSolver在解析类型时按需解析
+ * </pre>
+ *
+ * 使用了自定义的controller注解（即被@Controller注解的注解）的项目，controller需要同时被@RequestMapping注解才能被保留，
+ * 自定义的ObtainConcernedResponseBodyStrategy如果需要分析handler的方法体，则不应该开启预扫描
+ *
+ * @author Deolin 2020-08-17
+ */
+@Log4j2
+class PreScanProc {
+
+    private static final Pattern markerPattern = Pattern
+            .compile("@(?:org\\.springframework\\.\\w+\\.\\w+\\.)?(?:RestController|Controller|RequestMapping)\\b");
+
+    private static final Pattern signatureStartPattern = Pattern.compile("@\\w*Mapping\\b|\\bclass\\s");
+
+    private static final Pattern identifierPattern = Pattern.compile("\\b[A-Z][A-Za-z0-9_]*\\b");
+
+    /**
+     * @param sourceFiles 所有待解析的源码文件
+     * @return 需要解析的源码文件
+     */
+    public Set<Path> scan(Collection<Path> sourceFiles) {
+        long start = System.currentTimeMillis();
+
+        Map<String, List<Path>> sourceFilesBySimpleName = Maps.newHashMap();
+        for (Path sourceFile : sourceFiles) {
+            String simpleName = sourceFile.getFileName().toString().replaceFirst("\\.java$", "");
+            sourceFilesBySimpleName.computeIfAbsent(simpleName, key -> Lists.newArrayList()).add(sourceFile);
+        }
+
+        Map<Path, ScanResult> scanResults = sourceFiles.parallelStream()
+                .collect(Collectors.toConcurrentMap(one -> one, this::scanOne));
+
+        Set<Path> result = Sets.newHashSet();
+        Deque<Path> queue = Lists.newLinkedList();
+        scanResults.forEach((sourceFile, scanResult) -> {
+            if (scanResult.hasMarker) {
+                result.add(sourceFile);
+                queue.add(sourceFile);
+            }
+        });
+        while (!queue.isEmpty()) {
+            for (String identifier : scanResults.get(queue.poll()).identifiers) {
+                for (Path referenced : sourceFilesBySimpleName.getOrDefault(identifier, Lists.newArrayList())) {
+                    if (result.add(referenced)) {
+                        queue.add(referenced);
+                    }
+                }
+            }
+        }
+
+        log.info("预扫描排除了{}个源码文件，剩余{}个源码文件需要解析，耗时{}ms", sourceFiles.size() - result.size(), result.size(),
+                System.currentTimeMillis() - start);
+        return result;
+    }
+
+    private ScanResult scanOne(Path sourceFile) {
+        ScanResult result = new ScanResult();
+        CharSequence content;
+        try (FileChannel channel = FileChannel.open(sourceFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            // 标识符和注解名只由ASCII字符组成，ISO-8859-1逐字节解码即可，不受源码文件编码的影响
+            content = StandardCharsets.ISO_8859_1.decode(buffer);
+        } catch (IOException e) {
+            // 无法扫描的源码文件保留下来，交给JavaParser处理
+            log.warn("Pre-scan fail, keep it. path={}", sourceFile, e);
+            result.hasMarker = true;
+            return result;
+        }
+
+        result.hasMarker = markerPattern.matcher(content).find();
+        if (result.hasMarker) {
+            collectSignatureIdentifiers(content, result.identifiers);
+        } else {
+            collectIdentifiers(content, result.identifiers);
+        }
+        return result;
+    }
+
+    private void collectSignatureIdentifiers(CharSequence content, Set<String> identifiers) {
+        Matcher matcher = signatureStartPattern.matcher(content);
+        int from = 0;
+        while (from < content.length() && matcher.find(from)) {
+            int end = findSignatureEnd(content, matcher.end());
+            collectIdentifiers(content.subSequence(matcher.start(), end), identifiers);
+            from = end;
+        }
+    }
+
+    /**
+     * 跳过圆括号中的内容（注解的参数中可能有花括号），找到签名之后的第一个花括号或分号
+     */
+    private int findSignatureEnd(CharSequence content, int from) {
+        int depth = 0;
+        for (int i = from; i < content.length(); i++) {
+            char c = content.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (depth <= 0 && (c == '{' || c == ';')) {
+                return i;
+            }
+        }
+        return content.length();
+    }
+
+    private void collectIdentifiers(CharSequence content, Set<String> identifiers) {
+        Matcher matcher = identifierPattern.matcher(content);
+        while (matcher.find()) {
+            identifiers.add(matcher.group());
+        }
+    }
+
+    private static class ScanResult {
+
+        private boolean hasMarker;
+
+        private final Set<String> identifiers = Sets.newHashSet();
+
+    }
+
+}
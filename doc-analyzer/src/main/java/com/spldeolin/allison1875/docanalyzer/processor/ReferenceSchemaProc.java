@@ -4,78 +4,84 @@ import java.util.Map;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
 import com.fasterxml.jackson.module.jsonSchema.types.ReferenceSchema;
 import com.google.common.collect.Maps;
-import com.spldeolin.allison1875.base.util.JsonUtils;
 import com.spldeolin.allison1875.docanalyzer.dto.JsonPropertyDescriptionValueDto;
+import com.spldeolin.allison1875.docanalyzer.util.JpdvUtils;
 import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils;
+import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils.StoppableJsonSchemaHandler;
 
 /**
+ * 为ReferenceSchema（以及它所在的数组）的jpdv设置referencePath
+ *
+ * 可以单独调用process遍历，也可以通过handler与其他处理过程注册到同一次遍历中，注册时需要位于关联jpdv的处理过程之后
+ *
  * @author Deolin 2020-08-14
  */
 public class ReferenceSchemaProc {
 
     private final JsonSchema rootJsonSchema;
 
+    private final Map<String, String> pathsEachId = Maps.newHashMap();
+
+    private final Map<JsonSchema, String> paths = Maps.newIdentityHashMap();
+
     public ReferenceSchemaProc(JsonSchema rootJsonSchema) {
         this.rootJsonSchema = rootJsonSchema;
-    }
-
-    public void process() {
-        Map<String, String> pathsEachId = Maps.newHashMap();
-        Map<JsonSchema, String> paths = Maps.newLinkedHashMap();
         if (rootJsonSchema.isObjectSchema()) {
             pathsEachId.put(rootJsonSchema.getId(), "根节点");
         }
+    }
 
-        // 处理ReferenceSchema
-        JsonSchemaTraverseUtils.traverse("根节点", rootJsonSchema, (propertyName, jsonSchema, parentJsonSchema) -> {
-            JsonPropertyDescriptionValueDto jpdv = JsonUtils
-                    .toObjectSkipNull(jsonSchema.getDescription(), JsonPropertyDescriptionValueDto.class);
-            String path = paths.get(parentJsonSchema);
-            if (path == null) {
-                path = "";
-            } else {
-                if (parentJsonSchema.isObjectSchema()) {
-                    path += ".";
-                }
-            }
-            if (parentJsonSchema.isArraySchema()) {
-                if (jsonSchema.isObjectSchema() || jsonSchema.isArraySchema()) {
-                    propertyName = "";
-                }
+    public void process() {
+        JsonSchemaTraverseUtils.traverse("根节点", rootJsonSchema, JsonSchemaTraverseUtils.UNLIMITED_DEPTH, handler());
+    }
+
+    public StoppableJsonSchemaHandler handler() {
+        return (propertyName, jsonSchema, parentJsonSchema, depth) -> {
+            handle(propertyName, jsonSchema, parentJsonSchema);
+            return true;
+        };
+    }
+
+    private void handle(String propertyName, JsonSchema jsonSchema, JsonSchema parentJsonSchema) {
+        String path = paths.get(parentJsonSchema);
+        if (path == null) {
+            path = "";
+        } else {
+            if (parentJsonSchema.isObjectSchema()) {
+                path += ".";
             }
-            path = path + propertyName;
-            if (jsonSchema.isArraySchema()) {
-                path = path + "[]";
+        }
+        if (parentJsonSchema.isArraySchema()) {
+            if (jsonSchema.isObjectSchema() || jsonSchema.isArraySchema()) {
+                propertyName = "";
             }
+        }
+        path = path + propertyName;
+        if (jsonSchema.isArraySchema()) {
+            path = path + "[]";
+        }
 
-            paths.put(jsonSchema, path);
-            if (jsonSchema.getId() != null) {
-                pathsEachId.put(jsonSchema.getId(), path);
-            }
+        paths.put(jsonSchema, path);
+        if (jsonSchema.getId() != null) {
+            pathsEachId.put(jsonSchema.getId(), path);
+        }
 
-            if (jsonSchema instanceof ReferenceSchema) {
-                String referencePath = pathsEachId.get(jsonSchema.get$ref());
-                if (this.rootJsonSchema.isArraySchema()) {
-                    referencePath = "根节点[]" + referencePath;
-                }
-                if (jpdv != null) {
-                    jpdv.setReferencePath(referencePath);
-                }
-                if (parentJsonSchema.isArraySchema()) {
-                    JsonPropertyDescriptionValueDto parentJpdv = JsonUtils
-                            .toObjectSkipNull(parentJsonSchema.getDescription(), JsonPropertyDescriptionValueDto.class);
-                    if (parentJpdv == null) {
-                        parentJpdv = new JsonPropertyDescriptionValueDto();
-                    }
-                    parentJpdv.setReferencePath(referencePath);
-                    parentJsonSchema.setDescription(JsonUtils.toJson(parentJpdv));
-                }
+        if (jsonSchema instanceof ReferenceSchema) {
+            String referencePath = pathsEachId.get(jsonSchema.get$ref());
+            if (this.rootJsonSchema.isArraySchema()) {
+                referencePath = "根节点[]" + referencePath;
             }
-
+            // 关联的jpdv可能被共用，所以复制后再修改
+            JsonPropertyDescriptionValueDto jpdv = JpdvUtils.get(jsonSchema);
             if (jpdv != null) {
-                jsonSchema.setDescription(JsonUtils.toJson(jpdv));
+                JpdvUtils.put(jsonSchema, jpdv.copy().setReferencePath(referencePath));
             }
-        });
+            if (parentJsonSchema.isArraySchema()) {
+                JsonPropertyDescriptionValueDto parentJpdv = JpdvUtils.get(parentJsonSchema);
+                parentJpdv = parentJpdv == null ? new JsonPropertyDescriptionValueDto() : parentJpdv.copy();
+                JpdvUtils.put(parentJsonSchema, parentJpdv.setReferencePath(referencePath));
+            }
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package com.spldeolin.allison1875.docanalyzer.processor;
 
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
-import com.fasterxml.jackson.module.jsonSchema.JsonSchemaGenerator;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.Parameter;
 import com.github.javaparser.ast.expr.AnnotationExpr;
@@ -9,7 +8,6 @@ import com.github.javaparser.resolution.types.ResolvedType;
 import com.spldeolin.allison1875.base.constant.QualifierConstants;
 import com.spldeolin.allison1875.base.util.ast.MethodQualifiers;
 import com.spldeolin.allison1875.base.util.exception.JsonSchemaException;
-import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaGenerateUtils;
 import lombok.extern.log4j.Log4j2;
 
 /**
@@ -20,10 +18,10 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 class RequestBodyProc {
 
-    private final JsonSchemaGenerator jsg;
+    private final JsonSchemaCacheProc jsonSchemaCacheProcessor;
 
-    public RequestBodyProc(JsonSchemaGenerator jsg) {
-        this.jsg = jsg;
+    public RequestBodyProc(JsonSchemaCacheProc jsonSchemaCacheProcessor) {
+        this.jsonSchemaCacheProcessor = jsonSchemaCacheProcessor;
     }
 
     public JsonSchema analyze(MethodDeclaration handler) {
@@ -32,9 +30,7 @@ class RequestBodyProc {
             ResolvedType requestBody = findRequestBody(handler);
             if (requestBody != null) {
                 requestBodyDescribe = requestBody.describe();
-                JsonSchema jsonSchema = JsonSchemaGenerateUtils.generateSchema(requestBodyDescribe, jsg);
-                new ReferenceSchemaProc(jsonSchema).process();
-                return jsonSchema;
+                return jsonSchemaCacheProcessor.generate(requestBodyDescribe);
             }
         } catch (JsonSchemaException ignore) {
         } catch (Exception e) {
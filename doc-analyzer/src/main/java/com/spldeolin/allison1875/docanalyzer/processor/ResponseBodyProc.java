@@ -3,7 +3,6 @@ package com.spldeolin.allison1875.docanalyzer.processor;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
-import com.fasterxml.jackson.module.jsonSchema.JsonSchemaGenerator;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.resolution.types.ResolvedType;
@@ -11,7 +10,6 @@ import com.spldeolin.allison1875.base.util.ast.Annotations;
 import com.spldeolin.allison1875.base.util.ast.MethodQualifiers;
 import com.spldeolin.allison1875.base.util.exception.JsonSchemaException;
 import com.spldeolin.allison1875.docanalyzer.strategy.ObtainConcernedResponseBodyStrategy;
-import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaGenerateUtils;
 import lombok.extern.log4j.Log4j2;
 
 /**
@@ -22,13 +20,13 @@ import lombok.extern.log4j.Log4j2;
 @Log4j2
 class ResponseBodyProc {
 
-    private final JsonSchemaGenerator jsg;
+    private final JsonSchemaCacheProc jsonSchemaCacheProcessor;
 
     private final ObtainConcernedResponseBodyStrategy obtainConcernedResponseBodyStrategy;
 
-    public ResponseBodyProc(JsonSchemaGenerator jsg,
+    public ResponseBodyProc(JsonSchemaCacheProc jsonSchemaCacheProcessor,
             ObtainConcernedResponseBodyStrategy obtainConcernedResponseBodyStrategy) {
-        this.jsg = jsg;
+        this.jsonSchemaCacheProcessor = jsonSchemaCacheProcessor;
         this.obtainConcernedResponseBodyStrategy = obtainConcernedResponseBodyStrategy;
     }
 
@@ -38,9 +36,7 @@ class ResponseBodyProc {
             ResolvedType responseBody = findResponseBody(controller, handler);
             if (responseBody != null) {
                 responseBodyDescribe = responseBody.describe();
-                JsonSchema jsonSchema = JsonSchemaGenerateUtils.generateSchema(responseBodyDescribe, jsg);
-                new ReferenceSchemaProc(jsonSchema).process();
-                return jsonSchema;
+                return jsonSchemaCacheProcessor.generate(responseBodyDescribe);
             }
         } catch (JsonSchemaException ignore) {
         } catch (Exception e) {
@@ -0,0 +1,175 @@
+package com.spldeolin.allison1875.docanalyzer.processor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spldeolin.allison1875.base.util.StringUtils;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig.YApiTarget;
+import com.spldeolin.allison1875.docanalyzer.dto.EndpointDto;
+import com.spldeolin.allison1875.docanalyzer.yapi.YapiException;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 按yapiTargets将endpoints分配到多个YApi项目，与分析同时地流式同步到每个项目
+ *
+ * <pre>
+ * 1. start后，每个项目在各自的线程中加载镜像，并从各自的有界队列中取出endpoint同步
+ * 2. endpoint按controller的源码路径或包名，由第一个匹配的项目认领，未被认领的endpoint属于yapiUrl、yapiToken指定的项目
+ * 3. 队列已满时，提交endpoint的线程会等待，分析的速度不会远超同步的速度
+ * 4. finish后各项目才将不再存在的接口移动到回收站；分析失败时调用abort，不移动任何接口
+ * 5. endpoint之间共用的JsonSchema是只读的，可以被多个项目的线程同时序列化
+ * 6. 一个项目同步失败不影响其他项目，所有项目结束后，存在失败的项目时抛出YapiException
+ * </pre>
+ *
+ * 配置了yapiTargets时，没有认领到endpoint的项目不会移动接口，避免配置错误时将项目中的所有接口移动到回收站
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+class YApiFanOutProc {
+
+    private static final int QUEUE_CAPACITY = 512;
+
+    private final Collection<YApiTarget> targets;
+
+    private final Map<YApiTarget, BlockingQueue<EndpointDto>> queues = Maps.newLinkedHashMap();
+
+    private final Map<YApiTarget, CompletableFuture<Void>> futures = Maps.newLinkedHashMap();
+
+    private final Map<YApiTarget, Integer> claimedCounts = Maps.newHashMap();
+
+    /**
+     * 认领其他项目未认领的endpoint，未指定yapiUrl时为null
+     */
+    private YApiTarget defaultTarget;
+
+    private ExecutorService executor;
+
+    private int unclaimedCount;
+
+    YApiFanOutProc() {
+        Collection<YApiTarget> targets = DocAnalyzerConfig.getInstance().getYapiTargets();
+        this.targets = targets == null ? Collections.emptyList() : targets;
+    }
+
+    /**
+     * 启动每个YApi项目的同步，之后通过accept逐个提交endpoint
+     */
+    public void start() {
+        List<YApiTarget> all = Lists.newArrayList(targets);
+        YApiTarget target = YApiSyncProc.defaultTarget();
+        if (targets.isEmpty() || StringUtils.isNotBlank(target.getYapiUrl())) {
+            defaultTarget = target;
+            all.add(defaultTarget);
+        }
+        executor = Executors.newFixedThreadPool(all.size(),
+                new ThreadFactoryBuilder().setNameFormat("yapi-target-%d").setDaemon(true).build());
+        for (YApiTarget one : all) {
+            BlockingQueue<EndpointDto> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            YApiSyncProc syncProcessor = new YApiSyncProc(Lists.newArrayList(), one);
+            queues.put(one, queue);
+            futures.put(one, CompletableFuture.runAsync(() -> syncProcessor.consume(queue), executor));
+        }
+    }
+
+    /**
+     * 提交一个endpoint，由认领它的项目同步
+     */
+    public void accept(EndpointDto endpoint) {
+        YApiTarget target = targets.stream().filter(one -> claims(one, endpoint)).findFirst().orElse(defaultTarget);
+        if (target == null) {
+            unclaimedCount++;
+            return;
+        }
+        claimedCounts.merge(target, 1, Integer::sum);
+        put(queues.get(target), endpoint);
+    }
+
+    /**
+     * 所有endpoint都已提交，等待每个项目同步完成
+     */
+    public void finish() {
+        if (unclaimedCount > 0) {
+            log.warn("{}个endpoint未被任何YApi项目认领，且未指定yapiUrl，它们不会被同步", unclaimedCount);
+        }
+        queues.forEach((target, queue) -> {
+            if (!targets.isEmpty() && !claimedCounts.containsKey(target)) {
+                log.warn("YApi项目[{}]没有认领任何endpoint，不移动接口", target.getName());
+                put(queue, YApiSyncProc.ABORTED);
+            } else {
+                log.info("YApi项目[{}]认领了{}个endpoint", target.getName(), claimedCounts.getOrDefault(target, 0));
+                put(queue, YApiSyncProc.END_OF_STREAM);
+            }
+        });
+        List<String> failedTargetNames = awaitAll();
+        if (failedTargetNames.size() > 0) {
+            throw new YapiException("YApi项目" + failedTargetNames + "同步失败");
+        }
+    }
+
+    /**
+     * 分析失败，通知每个项目不要移动接口，并等待已提交的endpoint同步完成
+     */
+    public void abort() {
+        queues.values().forEach(queue -> put(queue, YApiSyncProc.ABORTED));
+        awaitAll();
+    }
+
+    private List<String> awaitAll() {
+        List<String> failedTargetNames = Lists.newArrayList();
+        try {
+            futures.forEach((target, future) -> {
+                try {
+                    future.join();
+                } catch (CompletionException e) {
+                    failedTargetNames.add(target.getName());
+                    log.error("YApi项目[{}]同步失败", target.getName(), e.getCause());
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        return failedTargetNames;
+    }
+
+    private void put(BlockingQueue<EndpointDto> queue, EndpointDto endpoint) {
+        try {
+            queue.put(endpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new YapiException("提交endpoint时被中断");
+        }
+    }
+
+    private boolean claims(YApiTarget target, EndpointDto endpoint) {
+        if (target.getSourceRoots() != null && endpoint.getControllerFile() != null) {
+            String controllerFile = endpoint.getControllerFile().replace('\\', '/');
+            for (String sourceRoot : target.getSourceRoots()) {
+                String prefix = org.apache.commons.lang3.StringUtils.removeEnd(sourceRoot.replace('\\', '/'), "/");
+                if (controllerFile.equals(prefix) || controllerFile.startsWith(prefix + "/")) {
+                    return true;
+                }
+            }
+        }
+        if (target.getPackagePrefixes() != null && endpoint.getSourceCode() != null) {
+            for (String packagePrefix : target.getPackagePrefixes()) {
+                if (endpoint.getSourceCode().startsWith(packagePrefix + ".")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+}
@@ -1,34 +1,77 @@
 package com.spldeolin.allison1875.docanalyzer.processor;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.spldeolin.allison1875.base.util.JsonUtils;
 import com.spldeolin.allison1875.base.util.StringUtils;
 import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig.YApiTarget;
 import com.spldeolin.allison1875.docanalyzer.dto.EndpointDto;
 import com.spldeolin.allison1875.docanalyzer.dto.JsonPropertyDescriptionValueDto;
-import com.spldeolin.allison1875.docanalyzer.util.HttpUtils;
+import com.spldeolin.allison1875.docanalyzer.dto.YApiJournalEntryDto;
+import com.spldeolin.allison1875.docanalyzer.util.AsyncHttpClient;
+import com.spldeolin.allison1875.docanalyzer.util.HttpException;
+import com.spldeolin.allison1875.docanalyzer.util.JpdvUtils;
 import com.spldeolin.allison1875.docanalyzer.util.JsonSchemaTraverseUtils;
 import com.spldeolin.allison1875.docanalyzer.util.MarkdownUtils;
+import com.spldeolin.allison1875.docanalyzer.yapi.YApiMirror;
+import com.spldeolin.allison1875.docanalyzer.yapi.YApiSyncJournal;
 import com.spldeolin.allison1875.docanalyzer.yapi.YapiException;
 import com.spldeolin.allison1875.docanalyzer.yapi.javabean.CommonRespDto;
-import com.spldeolin.allison1875.docanalyzer.yapi.javabean.InterfaceListMenuRespDto;
 import com.spldeolin.allison1875.docanalyzer.yapi.javabean.ProjectGetRespDto;
 import lombok.extern.log4j.Log4j2;
 
-import java.util.*;
-import java.util.stream.Collectors;
-
 /**
  * 将endpoints同步到YApi
  *
+ * <pre>
+ * 1. 创建分类、新增接口、将接口移动到回收站 通过AsyncHttpClient并发地请求YApi，并发数有上限
+ * 2. 所有请求共用一个令牌桶限流，IO异常、5xx的请求会退避重试
+ * 3. 接口内容的指纹保存在YApi接口的标签中，指纹、HTTP方法、分类都未变化的接口不再同步
+ * 4. 开启批量导入时，需要新增或更新的接口构建成一份导入文档，通过一次请求导入YApi
+ * 5. 项目、分类、接口的信息通过YApiMirror查询，每次同步最多只需从YApi加载一次
+ * 6. 同步结束后报告每个YApi接口的耗时，以及成功、重试、失败的次数，存在失败的请求时抛出YapiException
+ * 7. 同步分为计划和执行两个阶段，指定了同步日志时，计划在执行前写入日志，中断后下次同步先完成日志中未完成的操作
+ * 8. 也可以流式地同步，endpoint从队列中逐个取出并立即同步，分析结束后才将不再存在的接口移动到回收站
+ * </pre>
+ *
+ * 每个实例只同步到一个YApi项目，持有各自的HTTP客户端、限流、镜像、同步日志和统计，多个实例可以同时同步到不同的项目
+ *
  * @author Deolin 2020-07-26
  */
 @Log4j2
@@ -38,74 +81,643 @@ public class YApiSyncProc {
 
     private static final String DELETE_TAG = "已删除";
 
-    private static final String url = DocAnalyzerConfig.getInstance().getYapiUrl();
+    /**
+     * 流式同步时，生产者在所有endpoint入队后放入的标记
+     */
+    public static final EndpointDto END_OF_STREAM = new EndpointDto();
+
+    /**
+     * 流式同步时，生产者分析失败后放入的标记，收到后不会将任何接口移动到回收站
+     */
+    public static final EndpointDto ABORTED = new EndpointDto();
+
+    private static final int DEFAULT_PARALLELISM = 8;
+
+    private static final int DEFAULT_MAX_RETRIES = 2;
+
+    private static final long RETRY_BACKOFF_MILLIS = 500;
+
+    private static final long DEFAULT_MIRROR_TTL_SECONDS = 600;
+
+    private static final long DEFAULT_CALL_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * 接口内容指纹的标签前缀，指纹保存在YApi接口的标签中，用于判断接口在上次同步后是否发生了变化
+     */
+    private static final String FINGERPRINT_TAG_PREFIX = "fp-";
 
-    private static final String token = DocAnalyzerConfig.getInstance().getYapiToken();
+    /**
+     * Map的key按顺序序列化，使指纹稳定
+     */
+    private static final ObjectMapper fingerprintOm = JsonUtils.initObjectMapper(new ObjectMapper())
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
 
-    private static final Long projectId = getProjectIdFromYApi();
+    /**
+     * 以美化后的jpdv作为description序列化JsonSchema，JsonSchema可能被多个endpoint共用，所以不修改它
+     */
+    private static final ObjectMapper prettyJpdvOm = JpdvUtils
+            .initViewObjectMapper(JsonUtils.initObjectMapper(new ObjectMapper()),
+                    JsonPropertyDescriptionValueDto::toStringPrettily);
 
+    private final String targetName;
+
+    private final String url;
+
+    private final String token;
+
+    /**
+     * 流式同步时，随着endpoint出队而增加
+     */
     private final Collection<EndpointDto> endpoints;
 
-    private static Long getProjectIdFromYApi() {
-        String json = HttpUtils.get(url + "/api/project/get?token=" + token);
-        CommonRespDto<ProjectGetRespDto> resp = JsonUtils
-                .toParameterizedObject(json, new TypeReference<CommonRespDto<ProjectGetRespDto>>() {
-                });
-        ensureSuccess(resp);
-        return resp.getData().getId();
-    }
+    private final boolean bulkImport;
+
+    private final AsyncHttpClient httpClient;
+
+    /**
+     * 非幂等的请求失败后，确认未生效并重新请求的次数上限
+     */
+    private final int maxRetries;
+
+    /**
+     * 执行一个请求完成后才能发起的请求，发起请求时的限流可能阻塞，所以不能在OkHttp的回调线程中进行
+     */
+    private final ExecutorService continuationExecutor;
+
+    /**
+     * 失败的新增分类、新增或更新接口、移动接口的次数
+     */
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final YApiMirror mirror;
+
+    /**
+     * 为null时不记录同步日志
+     */
+    private final YApiSyncJournal journal;
+
+    private final boolean planOnly;
+
+    private volatile boolean markerTaken;
 
     public YApiSyncProc(Collection<EndpointDto> endpoints) {
+        this(endpoints, defaultTarget());
+    }
+
+    public YApiSyncProc(Collection<EndpointDto> endpoints, YApiTarget target) {
         this.endpoints = endpoints;
+        DocAnalyzerConfig config = DocAnalyzerConfig.getInstance();
+        this.targetName = target.getName();
+        this.url = target.getYapiUrl();
+        this.token = target.getYapiToken();
+        this.bulkImport = Boolean.TRUE.equals(config.getYapiBulkImport());
+        int parallelism = Optional.ofNullable(config.getYapiSyncParallelism()).orElse(DEFAULT_PARALLELISM);
+        Double permitsPerSecond = config.getYapiRequestsPerSecond();
+        RateLimiter rateLimiter = permitsPerSecond == null ? null : RateLimiter.create(permitsPerSecond);
+        this.maxRetries = Optional.ofNullable(config.getYapiMaxRetries()).orElse(DEFAULT_MAX_RETRIES);
+        this.continuationExecutor = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat("yapi-" + targetName + "-%d").setDaemon(true).build());
+        // 每次发送请求（包括重试）前都经过限流，重试在continuationExecutor中等待许可
+        this.httpClient = new AsyncHttpClient(parallelism,
+                Optional.ofNullable(config.getYapiCallTimeoutMillis()).orElse(DEFAULT_CALL_TIMEOUT_MILLIS), maxRetries,
+                RETRY_BACKOFF_MILLIS,
+                rateLimiter == null ? () -> {
+                } : rateLimiter::acquire, continuationExecutor);
+        this.mirror = new YApiMirror(url, token,
+                StringUtils.isBlank(target.getYapiMirrorPath()) ? null : Paths.get(target.getYapiMirrorPath()),
+                Optional.ofNullable(config.getYapiMirrorTtlSeconds()).orElse(DEFAULT_MIRROR_TTL_SECONDS));
+        if (StringUtils.isBlank(target.getYapiJournalPath())) {
+            this.journal = null;
+        } else if (bulkImport) {
+            log.warn("批量导入模式不使用YApi同步日志");
+            this.journal = null;
+        } else {
+            this.journal = new YApiSyncJournal(Paths.get(target.getYapiJournalPath()), token);
+        }
+        this.planOnly = journal != null && Boolean.TRUE.equals(config.getYapiJournalPlanOnly());
+    }
+
+    /**
+     * 由yapiUrl、yapiToken、yapiMirrorPath、yapiJournalPath指定的YApi项目
+     */
+    public static YApiTarget defaultTarget() {
+        DocAnalyzerConfig config = DocAnalyzerConfig.getInstance();
+        YApiTarget target = new YApiTarget();
+        target.setName("default");
+        target.setYapiUrl(config.getYapiUrl());
+        target.setYapiToken(config.getYapiToken());
+        target.setYapiMirrorPath(config.getYapiMirrorPath());
+        target.setYapiJournalPath(config.getYapiJournalPath());
+        return target;
     }
 
     public void process() {
-        Set<String> catNames = endpoints.stream().map(EndpointDto::getCat).collect(Collectors.toSet());
-        catNames.add("回收站");
-        Set<String> yapiCatNames = this.getYapiCatIdsEachName().keySet();
-        this.createYApiCat(Sets.difference(catNames, yapiCatNames));
+        process(true);
+    }
+
+    /**
+     * @param movesPlanned 是否将不再存在的接口移动到回收站，分析未完成时endpoints不完整，不能移动
+     */
+    private void process(boolean movesPlanned) {
+        run(() -> {
+            // 上次同步中断时，先完成日志中未完成的操作，再以完成后的状态制定新的计划
+            if (journal != null && !planOnly) {
+                journal.loadUnfinished().ifPresent(this::execute);
+                if (failureCount.get() > 0) {
+                    return;
+                }
+            }
+
+            List<YApiJournalEntryDto> plan = plan(movesPlanned);
+            if (journal != null) {
+                journal.writePlan(plan);
+            }
+            if (planOnly) {
+                log.info("仅生成YApi同步计划，不执行");
+                return;
+            }
+            execute(plan);
+
+            if (bulkImport) {
+                // 批量导入模式，所有需要新增或更新的接口通过一次请求导入
+                bulkImport(this.getYapiCatIdsEachName(), this.listAutoInterfaces());
+            }
+        });
+    }
+
+    /**
+     * 执行同步日志中未完成的操作，日志可以是本机中断的同步留下的，也可以是其他机器在仅生成计划模式下生成的
+     */
+    public void replayJournal() {
+        if (journal == null) {
+            throw new YapiException("未指定YApi同步日志的路径，或处于批量导入模式");
+        }
+        run(() -> {
+            Optional<List<YApiJournalEntryDto>> unfinished = journal.loadUnfinished();
+            if (unfinished.isPresent()) {
+                execute(unfinished.get());
+            } else {
+                log.info("YApi同步日志中没有未完成的操作");
+            }
+        });
+    }
+
+    /**
+     * 流式同步，从队列中取出endpoint，直到取出END_OF_STREAM或ABORTED
+     *
+     * <pre>
+     * 1. 与生产者同时进行：先加载镜像，之后每取出一个endpoint就创建缺少的分类，并异步地新增或更新接口
+     * 2. 取出END_OF_STREAM后，将不再存在的接口移动到回收站，取出ABORTED时不移动
+     * 3. 每个操作在请求前追加到同步日志，完成后标记
+     * 4. 批量导入模式、仅生成计划模式需要完整的endpoints，此时先取出所有endpoint，再按process()同步，
+     *    取出ABORTED时同样同步已取出的endpoint，但不移动
+     * 5. 即使同步失败，也会一直取出endpoint直到标记，避免生产者阻塞在已满的队列上
+     * </pre>
+     *
+     * 只能由一个线程调用
+     */
+    public void consume(BlockingQueue<EndpointDto> queue) {
+        try {
+            if (bulkImport || planOnly) {
+                EndpointDto marker = takeUntilMarker(queue, endpoints::add);
+                if (marker == ABORTED) {
+                    log.warn("[{}] 分析未完成，同步已提交的{}个endpoint，不将任何接口移动到回收站", targetName,
+                            endpoints.size());
+                }
+                process(marker == END_OF_STREAM);
+                return;
+            }
+            run(() -> streamingSync(queue));
+        } finally {
+            if (!markerTaken) {
+                takeUntilMarker(queue, endpoint -> {
+                });
+            }
+        }
+    }
+
+    private void streamingSync(BlockingQueue<EndpointDto> queue) {
+        if (journal != null) {
+            journal.loadUnfinished().ifPresent(this::execute);
+            if (failureCount.get() > 0) {
+                return;
+            }
+            journal.writePlan(Lists.newArrayList());
+        }
+
+        List<YApiJournalEntryDto> operations = Lists.newArrayList();
+        List<CompletableFuture<?>> futures = Lists.newArrayList();
+        Map<String, JsonNode> yapiUrls = this.listAutoInterfaces();
+        AtomicInteger unchangedCount = new AtomicInteger();
+        EndpointDto marker = takeUntilMarker(queue, endpoint -> {
+            endpoints.add(endpoint);
+            ensureCat(operations, endpoint.getCat());
+            String descHtml = MarkdownUtils.convertToHtml(endpoint.toStringPrettily());
+            if (planSave(operations, endpoint, mirror.getCatIdsEachName().get(endpoint.getCat()), descHtml,
+                    yapiUrls)) {
+                executeAsyncJournaled(Iterables.getLast(operations)).ifPresent(futures::add);
+            } else {
+                unchangedCount.incrementAndGet();
+            }
+        });
+        log.info("[{}] 流式同步了{}个endpoint，{}个接口与YApi中的内容一致，无需同步，{}个接口需要新增或更新", targetName,
+                endpoints.size(), unchangedCount.get(), endpoints.size() - unchangedCount.get());
+
+        if (marker == ABORTED) {
+            log.warn("[{}] 分析未完成，不将任何接口移动到回收站", targetName);
+        } else {
+            ensureCat(operations, "回收站");
+            Set<String> analysisUrls = endpoints.stream().map(EndpointDto::getUrl).collect(Collectors.toSet());
+            for (YApiJournalEntryDto operation : planMoves(operations, yapiUrls, analysisUrls,
+                    mirror.getCatIdsEachName().get("回收站"))) {
+                executeAsyncJournaled(operation).ifPresent(futures::add);
+            }
+        }
+        awaitAll(futures);
+    }
+
+    /**
+     * 分类不存在时创建分类，并等待创建完成
+     */
+    private void ensureCat(List<YApiJournalEntryDto> operations, String catName) {
+        if (mirror.getCatIdsEachName().containsKey(catName)) {
+            return;
+        }
+        YApiJournalEntryDto operation = newOperation(operations, YApiJournalEntryDto.KIND_ADD_CAT);
+        operation.setCatName(catName);
+        if (journal != null) {
+            journal.appendOperation(operation);
+        }
+        awaitAll(Lists.newArrayList(journaled(operation, this.createYApiCat(catName))));
+    }
+
+    private Optional<CompletableFuture<?>> executeAsyncJournaled(YApiJournalEntryDto operation) {
+        if (journal != null) {
+            journal.appendOperation(operation);
+        }
+        return executeAsync(operation);
+    }
+
+    /**
+     * 从队列中取出endpoint并处理，直到取出标记
+     *
+     * @return 取出的标记
+     */
+    private EndpointDto takeUntilMarker(BlockingQueue<EndpointDto> queue, Consumer<EndpointDto> eachEndpoint) {
+        while (true) {
+            EndpointDto endpoint;
+            try {
+                endpoint = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new YapiException("[" + targetName + "] 流式同步被中断");
+            }
+            if (endpoint == END_OF_STREAM || endpoint == ABORTED) {
+                markerTaken = true;
+                return endpoint;
+            }
+            eachEndpoint.accept(endpoint);
+        }
+    }
 
+    private void run(Runnable sync) {
+        long start = System.currentTimeMillis();
+        try {
+            loadMirror();
+            sync.run();
+        } finally {
+            continuationExecutor.shutdown();
+            httpClient.close();
+            httpClient.getStats().report(targetName);
+            if (journal != null) {
+                journal.close();
+            }
+            log.info("[{}] YApi同步耗时{}ms", targetName, System.currentTimeMillis() - start);
+        }
+
+        if (failureCount.get() > 0) {
+            mirror.invalidate();
+            throw new YapiException("[" + targetName + "] YApi同步存在" + failureCount.get() + "个失败的请求");
+        }
+        if (journal != null && !planOnly) {
+            journal.complete();
+        }
+        mirror.persist();
+    }
+
+    /**
+     * 对比endpoints与YApi镜像，计划需要的操作：创建分类、将不再存在的接口移动到回收站（movesPlanned为false时除外）、
+     * 新增或更新接口（批量导入模式除外）
+     */
+    private List<YApiJournalEntryDto> plan(boolean movesPlanned) {
+        List<YApiJournalEntryDto> plan = Lists.newArrayList();
+
+        Set<String> catNames = endpoints.stream().map(EndpointDto::getCat).collect(Collectors.toSet());
+        if (movesPlanned) {
+            catNames.add("回收站");
+        }
         Map<String, Long> catName2catId = this.getYapiCatIdsEachName();
+        for (String catName : Sets.difference(catNames, catName2catId.keySet())) {
+            YApiJournalEntryDto operation = newOperation(plan, YApiJournalEntryDto.KIND_ADD_CAT);
+            operation.setCatName(catName);
+        }
 
         Map<String, JsonNode> yapiUrls = this.listAutoInterfaces();
-        Set<String> analysisUrls = endpoints.stream().map(EndpointDto::getUrl).collect(Collectors.toSet());
+        if (movesPlanned) {
+            Set<String> analysisUrls = endpoints.stream().map(EndpointDto::getUrl).collect(Collectors.toSet());
+            planMoves(plan, yapiUrls, analysisUrls, catName2catId.get("回收站"));
+        }
 
-        // yapi中，在解析出endpoint中找不到url的接口，移动到回收站
-        for (String yapiUrl : yapiUrls.keySet()) {
-            if (!analysisUrls.contains(yapiUrl)) {
-                this.deleteInterface(yapiUrls.get(yapiUrl), catName2catId.get("回收站"));
+        if (!bulkImport) {
+            Map<EndpointDto, String> descHtmls = renderDescriptions(endpoints);
+            int unchangedCount = 0;
+            for (EndpointDto endpoint : endpoints) {
+                if (!planSave(plan, endpoint, catName2catId.get(endpoint.getCat()), descHtmls.get(endpoint),
+                        yapiUrls)) {
+                    unchangedCount++;
+                }
             }
+            log.info("{}个接口与YApi中的内容一致，无需同步，{}个接口需要新增或更新", unchangedCount,
+                    endpoints.size() - unchangedCount);
         }
+        return plan;
+    }
 
-        // 新增接口
-        for (EndpointDto endpoint : endpoints) {
-            Collection<String> descriptionLines = endpoint.getDescriptionLines();
-            String title = Iterables.getFirst(descriptionLines, null);
-            if (title == null || title.length() == 0) {
-                title = endpoint.getHandlerSimpleName();
+    /**
+     * yapi中，在解析出endpoint中找不到url的接口，计划移动到回收站
+     *
+     * @return 计划的操作
+     */
+    private List<YApiJournalEntryDto> planMoves(List<YApiJournalEntryDto> plan, Map<String, JsonNode> yapiUrls,
+            Set<String> analysisUrls, Long recycleBinCatId) {
+        List<YApiJournalEntryDto> result = Lists.newArrayList();
+        for (Map.Entry<String, JsonNode> entry : yapiUrls.entrySet()) {
+            if (!analysisUrls.contains(entry.getKey()) && !isInRecycleBin(entry.getValue(), recycleBinCatId)) {
+                YApiJournalEntryDto operation = newOperation(plan, YApiJournalEntryDto.KIND_MOVE_TO_RECYCLE_BIN);
+                operation.setYapiInterface(entry.getValue());
+                result.add(operation);
             }
-            String yapiDesc = endpoint.toStringPrettily();
+        }
+        return result;
+    }
+
+    /**
+     * 接口与YApi中的内容不一致时，计划新增或更新接口
+     *
+     * @return 是否计划了操作，接口没有变化时返回false
+     */
+    private boolean planSave(List<YApiJournalEntryDto> plan, EndpointDto endpoint, Long catId, String descHtml,
+            Map<String, JsonNode> yapiUrls) {
+        Map<String, Object> form = buildInterfaceForm(endpoint, catId, descHtml);
+        if (isUnchanged(form, yapiUrls.get(endpoint.getUrl()))) {
+            return false;
+        }
+        form.remove("token");
+        form.remove("catid");
+        YApiJournalEntryDto operation = newOperation(plan, YApiJournalEntryDto.KIND_SAVE);
+        operation.setCatName(endpoint.getCat());
+        operation.setForm(form);
+        return true;
+    }
+
+    private static YApiJournalEntryDto newOperation(List<YApiJournalEntryDto> plan, String kind) {
+        YApiJournalEntryDto operation = new YApiJournalEntryDto();
+        operation.setType(YApiJournalEntryDto.TYPE_OPERATION);
+        operation.setSeq(plan.size());
+        operation.setKind(kind);
+        plan.add(operation);
+        return operation;
+    }
+
+    /**
+     * 执行计划中的操作，先创建分类，再并发地新增或更新接口、移动接口
+     *
+     * 计划可能是之前制定的，所以执行前以镜像的当前状态再次检查，已经完成的操作不再请求YApi
+     */
+    private void execute(List<YApiJournalEntryDto> operations) {
+        List<CompletableFuture<?>> futures = Lists.newArrayList();
+        for (YApiJournalEntryDto operation : operations) {
+            if (YApiJournalEntryDto.KIND_ADD_CAT.equals(operation.getKind())) {
+                String catName = operation.getCatName();
+                futures.add(journaled(operation, mirror.getCatIdsEachName().containsKey(catName) ?
+                        CompletableFuture.completedFuture(null) : this.createYApiCat(catName)));
+            }
+        }
+        awaitAll(futures);
+
+        futures = Lists.newArrayList();
+        for (YApiJournalEntryDto operation : operations) {
+            executeAsync(operation).ifPresent(futures::add);
+        }
+        awaitAll(futures);
+    }
+
+    /**
+     * 异步地执行新增或更新接口、移动接口的操作，所需的分类不存在时跳过
+     */
+    private Optional<CompletableFuture<?>> executeAsync(YApiJournalEntryDto operation) {
+        Map<String, Long> catName2catId = mirror.getCatIdsEachName();
+        Map<String, JsonNode> yapiUrls = mirror.getInterfacesEachPath();
+        if (YApiJournalEntryDto.KIND_SAVE.equals(operation.getKind())) {
+            Long catId = catName2catId.get(operation.getCatName());
+            if (catId == null) {
+                log.warn("分类[{}]未能创建，跳过接口 {}", operation.getCatName(), operation.getForm().get("path"));
+                return Optional.empty();
+            }
+            Map<String, Object> form = Maps.newHashMap(operation.getForm());
+            form.put("catid", catId);
+            form.put("token", token);
+            return Optional.of(journaled(operation, isUnchanged(form, yapiUrls.get(form.get("path").toString())) ?
+                    CompletableFuture.completedFuture(null) : this.saveInterface(form)));
+        }
+        if (YApiJournalEntryDto.KIND_MOVE_TO_RECYCLE_BIN.equals(operation.getKind())) {
+            Long recycleBinCatId = catName2catId.get("回收站");
+            if (recycleBinCatId == null) {
+                log.warn("分类[回收站]未能创建，跳过接口 {}", operation.getYapiInterface().get("path"));
+                return Optional.empty();
+            }
+            JsonNode planned = operation.getYapiInterface();
+            JsonNode current = yapiUrls.getOrDefault(planned.get("path").asText(), planned);
+            return Optional.of(journaled(operation, this.deleteInterface(current, recycleBinCatId)));
+        }
+        return Optional.empty();
+    }
+
+    private CompletableFuture<Void> journaled(YApiJournalEntryDto operation, CompletableFuture<Void> future) {
+        if (journal == null) {
+            return future;
+        }
+        return future.thenRun(() -> journal.markDone(operation.getSeq()));
+    }
+
+    /**
+     * 加载YApi镜像，本地没有可用的镜像时，通过一次list_menu请求加载分类和接口
+     */
+    private void loadMirror() {
+        if (mirror.isLoaded() || mirror.restore()) {
+            return;
+        }
+        mirror.reload(fetchListMenu());
+    }
 
-            List<Map<String, String>> reqQuery = toQueryList(endpoint.getRequestBodyJsonSchema());
-            String respJs = toJson(endpoint.getResponseBodyJsonSchema());
-            this.createYApiInterface(title, endpoint.getUrl(), reqQuery, respJs, yapiDesc, endpoint.getHttpMethod(),
-                    catName2catId.get(endpoint.getCat()));
+    private JsonNode fetchListMenu() {
+        return ensureSusscessAndToGetData(call(client -> client.get(url + "/api/interface/list_menu?token=" + token)));
+    }
+
+    /**
+     * 项目ID仅在创建分类时需要，所以在第一次需要时才请求YApi
+     */
+    private Long getProjectId() {
+        Long projectId = mirror.getProjectId();
+        if (projectId == null) {
+            String json = call(client -> client.get(url + "/api/project/get?token=" + token));
+            CommonRespDto<ProjectGetRespDto> resp = JsonUtils
+                    .toParameterizedObject(json, new TypeReference<CommonRespDto<ProjectGetRespDto>>() {
+                    });
+            projectId = resp.getData().getId();
+            mirror.setProjectId(projectId);
         }
+        return projectId;
+    }
+
+    /**
+     * 将所有需要新增或更新的接口，按分类流式地写入一份YApi数据导入文档，通过一次请求导入，导入后校验每个接口
+     *
+     * 文档是YApi原生的json导入格式（分类数组，每个分类的list是接口数组），能完整保留请求参数和响应的JsonSchema
+     */
+    private void bulkImport(Map<String, Long> catName2catId, Map<String, JsonNode> yapiUrls) {
+        Map<String, List<EndpointDto>> endpointsEachCat = endpoints.stream()
+                .collect(Collectors.groupingBy(EndpointDto::getCat, Maps::newLinkedHashMap, Collectors.toList()));
+        Map<String, Collection<?>> expectedTags = Maps.newHashMap();
+        Map<EndpointDto, String> descHtmls = renderDescriptions(endpoints);
+        int unchangedCount = 0;
+
+        StringWriter document = new StringWriter();
+        try (JsonGenerator generator = fingerprintOm.getFactory().createGenerator(document)) {
+            generator.writeStartArray();
+            for (Map.Entry<String, List<EndpointDto>> entry : endpointsEachCat.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", entry.getKey());
+                generator.writeStringField("desc", "");
+                generator.writeArrayFieldStart("list");
+                for (EndpointDto endpoint : entry.getValue()) {
+                    Map<String, Object> form = buildInterfaceForm(endpoint, catName2catId.get(entry.getKey()),
+                            descHtmls.get(endpoint));
+                    if (isUnchanged(form, yapiUrls.get(endpoint.getUrl()))) {
+                        unchangedCount++;
+                        continue;
+                    }
+                    form.remove("token");
+                    form.remove("catid");
+                    generator.writeObject(form);
+                    expectedTags.put(endpoint.getUrl(), (Collection<?>) form.get("tag"));
+                }
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new YapiException("构建YApi数据导入文档失败 " + e.getMessage());
+        }
+        log.info("{}个接口与YApi中的内容一致，无需同步，{}个接口将被批量导入，导入文档{}字符", unchangedCount, expectedTags.size(),
+                document.getBuffer().length());
+        if (expectedTags.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> form = Maps.newHashMap();
+        form.put("type", "json");
+        form.put("merge", "merge");
+        form.put("json", document.toString());
+        form.put("token", token);
+        // merge模式按path与method覆盖已存在的接口，所以重复导入是幂等的
+        String resp = call(client -> client.postForm(url + "/api/open/import_data", form, true));
+        log.info(resp);
+
+        // 校验导入结果，同时以导入后的状态重新加载镜像
+        mirror.reload(fetchListMenu());
+        Map<String, JsonNode> importedUrls = this.listAutoInterfaces();
+        List<String> missingUrls = Lists.newArrayList();
+        expectedTags.forEach((url, tags) -> {
+            JsonNode yapiInterface = importedUrls.get(url);
+            if (yapiInterface == null || !JsonUtils.toListOfObject(yapiInterface.get("tag").toString(), String.class)
+                    .containsAll(tags)) {
+                missingUrls.add(url);
+            }
+        });
+        if (missingUrls.size() > 0) {
+            log.error("批量导入后，{}个接口在YApi中不存在或内容不一致 {}", missingUrls.size(), missingUrls);
+            throw new YapiException("批量导入后，" + missingUrls.size() + "个接口在YApi中不存在或内容不一致");
+        }
+        log.info("批量导入完成，{}个接口均已校验", expectedTags.size());
+    }
+
+    /**
+     * 并行地将每个endpoint的描述转换为HTML，转换不涉及JsonSchema，可以脱离当前线程
+     */
+    private Map<EndpointDto, String> renderDescriptions(Collection<EndpointDto> endpoints) {
+        List<EndpointDto> list = Lists.newArrayList(endpoints);
+        List<String> htmls = MarkdownUtils
+                .convertToHtml(list.stream().map(EndpointDto::toStringPrettily).collect(Collectors.toList()));
+        Map<EndpointDto, String> result = Maps.newIdentityHashMap();
+        for (int i = 0; i < list.size(); i++) {
+            result.put(list.get(i), htmls.get(i));
+        }
+        return result;
+    }
+
+    private Map<String, Object> buildInterfaceForm(EndpointDto endpoint, Long catId, String descHtml) {
+        Collection<String> descriptionLines = endpoint.getDescriptionLines();
+        String title = Iterables.getFirst(descriptionLines, null);
+        if (title == null || title.length() == 0) {
+            title = endpoint.getHandlerSimpleName();
+        }
+
+        List<Map<String, String>> reqQuery = toQueryList(endpoint.getRequestBodyJsonSchema());
+        String respJs = toJson(endpoint.getResponseBodyJsonSchema());
+        Map<String, Object> form = this.createYApiInterfaceForm(title, endpoint.getUrl(), reqQuery, respJs, descHtml,
+                endpoint.getHttpMethod(), catId);
+        form.put("tag", Lists.newArrayList(ALLISON_1875_TAG, FINGERPRINT_TAG_PREFIX + fingerprint(form)));
+        return form;
+    }
+
+    /**
+     * 计算接口内容的指纹，内容包括标题、URL、HTTP方法、请求参数、响应的JsonSchema和描述
+     *
+     * 分类不计入指纹，因为计划同步时新分类尚未创建，分类是否变化由isUnchanged单独比较
+     */
+    private String fingerprint(Map<String, Object> form) {
+        Map<String, Object> content = Maps.newTreeMap();
+        content.putAll(form);
+        content.remove("token");
+        content.remove("tag");
+        content.remove("catid");
+        return Hashing.sha256().hashString(JsonUtils.toJson(content, fingerprintOm), StandardCharsets.UTF_8)
+                .toString().substring(0, 16);
+    }
+
+    /**
+     * YApi中的接口带有相同的指纹标签，且HTTP方法与分类也相同时，认为接口没有变化
+     */
+    private boolean isUnchanged(Map<String, Object> form, JsonNode yapiInterface) {
+        if (yapiInterface == null) {
+            return false;
+        }
+        List<String> yapiTags = JsonUtils.toListOfObject(yapiInterface.get("tag").toString(), String.class);
+        if (!yapiTags.containsAll((Collection<?>) form.get("tag"))) {
+            return false;
+        }
+        if (!yapiInterface.path("method").asText().equalsIgnoreCase(String.valueOf(form.get("method")))) {
+            return false;
+        }
+        return Objects.equals(form.get("catid"), yapiInterface.path("catid").asLong());
     }
 
     private String toJson(JsonSchema bodyJsonSchema) {
         String json = "";
         if (bodyJsonSchema != null) {
             // jpdv -> Pretty String
-            JsonSchemaTraverseUtils.traverse("根节点", bodyJsonSchema, (propertyName, jsonSchema, parentJsonSchema) -> {
-                JsonPropertyDescriptionValueDto jpdv = JsonUtils
-                        .toObjectSkipNull(jsonSchema.getDescription(), JsonPropertyDescriptionValueDto.class);
-                if (jpdv != null) {
-                    jsonSchema.setDescription(jpdv.toStringPrettily());
-                }
-            });
-
-            json = JsonUtils.toJson(bodyJsonSchema);
+            json = JsonUtils.toJson(bodyJsonSchema, prettyJpdvOm);
         }
         return json;
     }
@@ -115,18 +727,12 @@ public class YApiSyncProc {
         if (bodyJsonSchema != null) {
             // jpdv -> Pretty String
             JsonSchemaTraverseUtils.traverse("根节点", bodyJsonSchema, (propertyName, jsonSchema, parentJsonSchema) -> {
-                JsonPropertyDescriptionValueDto jpdv = JsonUtils
-                        .toObjectSkipNull(jsonSchema.getDescription(), JsonPropertyDescriptionValueDto.class);
+                JsonPropertyDescriptionValueDto jpdv = JpdvUtils.get(jsonSchema);
                 Map<String, String> paramMap = new HashMap<>();
                 paramMap.put("required", "0");
                 paramMap.put("name", propertyName);
                 paramMap.put("example", "");
-                if (jpdv != null) {
-                    paramMap.put("desc", jpdv.toStringPrettily());
-                    jsonSchema.setDescription(jpdv.toStringPrettily());
-                } else {
-                    paramMap.put("desc", "");
-                }
+                paramMap.put("desc", jpdv == null ? "" : jpdv.toStringPrettily());
                 list.add(paramMap);
             });
 
@@ -135,57 +741,80 @@ public class YApiSyncProc {
     }
 
     public Map<String, Long> getYapiCatIdsEachName() {
-        String json = HttpUtils.get(url + "/api/interface/list_menu?token=" + token + "&project_id" + projectId);
-        CommonRespDto<List<InterfaceListMenuRespDto>> resp = JsonUtils
-                .toParameterizedObject(json, new TypeReference<CommonRespDto<List<InterfaceListMenuRespDto>>>() {
-                });
-        ensureSuccess(resp);
-
-        Map<String, Long> result = Maps.newHashMap();
-        for (InterfaceListMenuRespDto cat : resp.getData()) {
-            result.put(cat.getName(), cat.getId());
-        }
-        return result;
+        loadMirror();
+        return Maps.newHashMap(mirror.getCatIdsEachName());
     }
 
-    public void createYApiCat(Collection<String> catNames) {
-        for (String catName : catNames) {
-            Map<String, String> form = Maps.newHashMap();
-            form.put("desc", "");
-            form.put("name", catName);
-            form.put("project_id", projectId.toString());
-            form.put("token", token);
-            HttpUtils.postForm(url + "/api/interface/add_cat", form);
-        }
+    public CompletableFuture<Void> createYApiCat(String catName) {
+        Map<String, String> form = Maps.newHashMap();
+        form.put("desc", "");
+        form.put("name", catName);
+        form.put("project_id", getProjectId().toString());
+        form.put("token", token);
+        return createYApiCat(catName, form, 0);
+    }
 
+    /**
+     * 新增分类不是幂等的，请求失败时分类可能已经被创建（e.g.: 响应丢失），所以重新查询YApi中的分类，确认不存在后才重新新增
+     */
+    private CompletableFuture<Void> createYApiCat(String catName, Map<String, String> form, int attempt) {
+        return callAsync(client -> client.postForm(url + "/api/interface/add_cat", form, false))
+                .thenAccept(resp -> mirror.putCat(catName, ensureSusscessAndToGetData(resp).get("_id").asLong()))
+                .handleAsync((v, e) -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause == null) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (!(cause instanceof HttpException) || attempt >= maxRetries) {
+                        CompletableFuture<Void> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(cause);
+                        return failed;
+                    }
+                    log.warn("新增分类[{}]失败，重新查询YApi中的分类以确认是否已被创建", catName);
+                    return callAsync(client -> client.get(url + "/api/interface/list_menu?token=" + token))
+                            .thenComposeAsync(resp -> {
+                                for (JsonNode cat : ensureSusscessAndToGetData(resp)) {
+                                    if (catName.equals(cat.path("name").asText())) {
+                                        mirror.putCat(catName, cat.get("_id").asLong());
+                                        return CompletableFuture.<Void>completedFuture(null);
+                                    }
+                                }
+                                return createYApiCat(catName, form, attempt + 1);
+                            }, continuationExecutor);
+                }, continuationExecutor).thenCompose(Function.identity());
     }
 
     public Map<String, JsonNode> listAutoInterfaces() {
-        JsonNode interfaceListMenuDto = ensureSusscessAndToGetData(
-                HttpUtils.get(url + "/api/interface/list_menu?token=" + token + "&project_id" + projectId));
-
+        loadMirror();
         Map<String, JsonNode> result = Maps.newHashMap();
-        for (JsonNode jsonNode : interfaceListMenuDto) {
-            for (JsonNode interf : jsonNode.get("list")) {
-                List<String> tags = JsonUtils.toListOfObject(interf.get("tag").toString(), String.class);
-                if (tags.contains(ALLISON_1875_TAG)) {
-                    result.put(interf.get("path").asText(), interf);
-                }
+        mirror.getInterfacesEachPath().forEach((path, interf) -> {
+            List<String> tags = JsonUtils.toListOfObject(interf.get("tag").toString(), String.class);
+            if (tags.contains(ALLISON_1875_TAG)) {
+                result.put(path, interf);
             }
-        }
+        });
         return result;
     }
 
-    public void deleteInterface(JsonNode jsonNode, Long recycleBinCatId) {
-        if (recycleBinCatId.equals(jsonNode.get("catid").asLong())) {
-            // 已在"回收站"分类中
-            return;
+    public CompletableFuture<Void> deleteInterface(JsonNode jsonNode, Long recycleBinCatId) {
+        if (isInRecycleBin(jsonNode, recycleBinCatId)) {
+            return CompletableFuture.completedFuture(null);
         }
         Long id = jsonNode.get("_id").asLong();
+        return callAsync(client -> client.get(url + "/api/interface/get?id=" + id + "&token=" + token))
+                .thenComposeAsync(detailResp -> moveToRecycleBin(jsonNode, id, ensureSusscessAndToGetData(detailResp),
+                        recycleBinCatId), continuationExecutor);
+    }
 
-        JsonNode detail = ensureSusscessAndToGetData(
-                HttpUtils.get(url + "/api/interface/get?id=" + id + "&token=" + token));
+    /**
+     * 已在"回收站"分类中
+     */
+    private static boolean isInRecycleBin(JsonNode jsonNode, Long recycleBinCatId) {
+        return recycleBinCatId != null && recycleBinCatId.equals(jsonNode.path("catid").asLong());
+    }
 
+    private CompletableFuture<Void> moveToRecycleBin(JsonNode jsonNode, Long id, JsonNode detail,
+            Long recycleBinCatId) {
         Map<String, Object> form = Maps.newHashMap();
         form.put("id", id);
         form.put("catid", recycleBinCatId);
@@ -205,12 +834,16 @@ public class YApiSyncProc {
 
         form.put("desc", deleteMessage + desc);
         form.put("token", token);
-        String resp = HttpUtils.postJson(url + "/api/interface/up", JsonUtils.toJson(form));
-        log.info(resp);
+        return callAsync(client -> client.postJson(url + "/api/interface/up", JsonUtils.toJson(form), true))
+                .thenAccept(resp -> {
+                    log.info(resp);
+                    mirror.putInterface(jsonNode.get("path").asText(), jsonNode.path("method").asText(),
+                            recycleBinCatId, tags, id);
+                });
     }
 
-    public void createYApiInterface(String title, String url, List<Map<String, String>> reqQuery,
-            String responseBodyJsonSchema, String description, String httpMethod, Long catId) {
+    public Map<String, Object> createYApiInterfaceForm(String title, String url, List<Map<String, String>> reqQuery,
+            String responseBodyJsonSchema, String descriptionHtml, String httpMethod, Long catId) {
         Map<String, Object> form = Maps.newHashMap();
         form.put("title", title);
         form.put("path", url);
@@ -224,13 +857,70 @@ public class YApiSyncProc {
         form.put("switch_notice", true);
         form.put("message", "1");
         form.put("tag", Lists.newArrayList(ALLISON_1875_TAG));
-        form.put("desc", MarkdownUtils.convertToHtml(description));
+        form.put("desc", descriptionHtml);
         form.put("method", httpMethod);
         form.put("catid", catId);
         form.put("token", token);
-        log.info(JsonUtils.toJson(form));
-        String resp = HttpUtils.postJson(YApiSyncProc.url + "/api/interface/save", JsonUtils.toJson(form));
-        log.info(resp);
+        return form;
+    }
+
+    public CompletableFuture<Void> saveInterface(Map<String, Object> form) {
+        String formJson = JsonUtils.toJson(form);
+        log.info(formJson);
+        // save按path与method新增或更新接口，所以是幂等的
+        return callAsync(client -> client.postJson(url + "/api/interface/save", formJson, true)).thenAccept(resp -> {
+            log.info(resp);
+
+            // 新增接口时data是接口信息，更新接口时data可能是数组或更新结果，取不到接口ID时沿用镜像中的接口ID
+            JsonNode data = ensureSusscessAndToGetData(resp);
+            if (data != null && data.isArray()) {
+                data = data.path(0);
+            }
+            Long id = data != null && data.has("_id") ? data.get("_id").asLong() : null;
+            @SuppressWarnings("unchecked")
+            Collection<String> tags = (Collection<String>) form.get("tag");
+            mirror.putInterface(form.get("path").toString(), form.get("method").toString(), (Long) form.get("catid"),
+                    tags, id);
+        });
+    }
+
+    /**
+     * 经过限流后异步地请求YApi，YApi返回的errcode不为0时以YapiException结束
+     *
+     * 限流由AsyncHttpClient在每次发送请求前进行，首次请求时阻塞调用方的线程，
+     * IO异常、5xx的重试由AsyncHttpClient负责，errcode不为0是确定性的错误，不重试
+     */
+    private CompletableFuture<String> callAsync(Function<AsyncHttpClient, CompletableFuture<String>> request) {
+        return request.apply(httpClient).thenApply(resp -> {
+            ensureSuccess(JsonUtils.toObject(resp, CommonRespDto.class));
+            return resp;
+        });
+    }
+
+    /**
+     * 经过限流后请求YApi，并等待响应
+     */
+    private String call(Function<AsyncHttpClient, CompletableFuture<String>> request) {
+        try {
+            return callAsync(request).join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * 等待所有请求结束，一个请求失败不会中断其他请求，失败的次数会被记录
+     */
+    private void awaitAll(Collection<CompletableFuture<?>> futures) {
+        for (CompletableFuture<?> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                failureCount.incrementAndGet();
+                log.error("YApi同步的请求失败，继续同步其他内容", e.getCause());
+            }
+        }
     }
 
     private JsonNode ensureSusscessAndToGetData(String respJson) {
@@ -0,0 +1,232 @@
+package com.spldeolin.allison1875.docanalyzer.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 异步的HTTP客户端
+ *
+ * <pre>
+ * 1. 请求在OkHttp的Dispatcher中异步执行，并发数与连接池大小可配置
+ * 2. 每次请求有整体的超时时间（包括DNS、连接、写入请求、读取响应）
+ * 3. 幂等的请求遇到IO异常、5xx、429会在指数退避（带随机抖动）后重试，退避期间不占用线程，
+ *    非幂等的请求（e.g.: 新增）只在429时重试，IO异常、5xx时请求可能已经生效，由调用方确认后决定是否重新请求
+ * 4. 每个Response都会被关闭，包括失败和重试的Response
+ * 5. 按请求路径统计耗时、成功、重试、失败
+ * 6. 每次发送请求（包括每次重试）前都会调用beforeSend，可以用于限流，
+ *    beforeSend可能阻塞：首次请求时阻塞调用execute的线程，重试时阻塞retryExecutor的线程，
+ *    不会阻塞OkHttp的线程，也不会阻塞负责退避计时的线程（一个重试等待许可时不影响其他重试的计时）
+ * </pre>
+ *
+ * 使用完毕后需要close
+ *
+ * @author Deolin 2020-08-19
+ */
+@Log4j2
+public class AsyncHttpClient implements Closeable {
+
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json");
+
+    private static final long MAX_BACKOFF_MILLIS = 10000;
+
+    private final OkHttpClient client;
+
+    private final ScheduledExecutorService retryScheduler;
+
+    private final int maxRetries;
+
+    private final long backoffBaseMillis;
+
+    private final Runnable beforeSend;
+
+    private final Executor retryExecutor;
+
+    @Getter
+    private final HttpCallStats stats = new HttpCallStats();
+
+    /**
+     * @param maxConcurrency 同时执行的请求数上限，也是连接池保留的空闲连接数上限
+     * @param callTimeoutMillis 每次请求的超时时间
+     * @param maxRetries 最多重试的次数
+     * @param backoffBaseMillis 第1次重试前退避时间的上限，之后每次翻倍
+     */
+    public AsyncHttpClient(int maxConcurrency, long callTimeoutMillis, int maxRetries, long backoffBaseMillis) {
+        this(maxConcurrency, callTimeoutMillis, maxRetries, backoffBaseMillis, () -> {
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * @param beforeSend 每次发送请求前调用，e.g.: 从令牌桶中获取许可
+     * @param retryExecutor 退避结束后在此调用beforeSend并重新发送请求，beforeSend会阻塞时不应使用directExecutor
+     */
+    public AsyncHttpClient(int maxConcurrency, long callTimeoutMillis, int maxRetries, long backoffBaseMillis,
+            Runnable beforeSend, Executor retryExecutor) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxConcurrency);
+        dispatcher.setMaxRequestsPerHost(maxConcurrency);
+        this.client = new OkHttpClient.Builder().dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(maxConcurrency, 5, TimeUnit.MINUTES))
+                .callTimeout(callTimeoutMillis, TimeUnit.MILLISECONDS).build();
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("http-retry-%d").setDaemon(true).build());
+        scheduler.setRemoveOnCancelPolicy(true);
+        this.retryScheduler = scheduler;
+        this.maxRetries = maxRetries;
+        this.backoffBaseMillis = backoffBaseMillis;
+        this.beforeSend = beforeSend;
+        this.retryExecutor = retryExecutor;
+    }
+
+    public CompletableFuture<String> get(String url) {
+        return execute(new Request.Builder().url(url).build(), true);
+    }
+
+    /**
+     * @param idempotent 请求是否幂等，e.g.: 按ID更新
+     */
+    public CompletableFuture<String> postJson(String url, String bodyJson, boolean idempotent) {
+        return execute(new Request.Builder().url(url).post(RequestBody.create(JSON_MEDIA_TYPE, bodyJson)).build(),
+                idempotent);
+    }
+
+    /**
+     * @param idempotent 请求是否幂等，e.g.: 按ID更新
+     */
+    public CompletableFuture<String> postForm(String url, Map<String, String> form, boolean idempotent) {
+        FormBody.Builder body = new FormBody.Builder();
+        form.forEach((key, value) -> {
+            if (key != null && value != null) {
+                body.add(key, value);
+            }
+        });
+        return execute(new Request.Builder().url(url).post(body.build()).build(), idempotent);
+    }
+
+    /**
+     * @param idempotent 请求是否幂等，非幂等的请求只在429时重试
+     * @return 响应body的String形式，请求最终失败时以HttpException结束
+     */
+    public CompletableFuture<String> execute(Request request, boolean idempotent) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        enqueue(request, idempotent, 0, result);
+        return result;
+    }
+
+    private void resend(Request request, boolean idempotent, int attempt, CompletableFuture<String> result,
+            HttpException lastError) {
+        try {
+            retryExecutor.execute(() -> enqueue(request, idempotent, attempt, result));
+        } catch (RejectedExecutionException rejected) {
+            // retryExecutor已被关闭
+            result.completeExceptionally(lastError);
+        }
+    }
+
+    private void enqueue(Request request, boolean idempotent, int attempt, CompletableFuture<String> result) {
+        String path = request.url().encodedPath();
+        beforeSend.run();
+        long start = System.nanoTime();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                retryOrFail(request, idempotent, attempt, result, path, start, new HttpException(e));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response closeable = response) {
+                    if (closeable.isSuccessful()) {
+                        ResponseBody body = closeable.body();
+                        String bodyString = body == null ? "" : body.string();
+                        stats.success(path, System.nanoTime() - start);
+                        result.complete(bodyString);
+                        return;
+                    }
+                    HttpException e = new HttpException(
+                            "HTTP " + closeable.code() + " " + closeable.message() + " " + request.url());
+                    // 429说明请求未被处理，5xx时请求可能已经生效
+                    if (closeable.code() == 429 || (idempotent && closeable.code() >= 500)) {
+                        retryOrFail(request, idempotent, attempt, result, path, start, e);
+                    } else {
+                        stats.failure(path, System.nanoTime() - start);
+                        result.completeExceptionally(e);
+                    }
+                } catch (IOException e) {
+                    // 读取响应时失败，请求已经生效
+                    retryOrFail(request, idempotent, attempt, result, path, start, new HttpException(e));
+                }
+            }
+        });
+    }
+
+    private void retryOrFail(Request request, boolean idempotent, int attempt, CompletableFuture<String> result,
+            String path, long start, HttpException e) {
+        long nanos = System.nanoTime() - start;
+        if (!idempotent && !isTooManyRequests(e)) {
+            stats.failure(path, nanos);
+            log.error("[{}] 请求失败，请求不是幂等的，不重试", path, e);
+            result.completeExceptionally(e);
+            return;
+        }
+        if (attempt >= maxRetries || retryScheduler.isShutdown()) {
+            stats.failure(path, nanos);
+            log.error("[{}] 请求失败，已重试{}次", path, attempt, e);
+            result.completeExceptionally(e);
+            return;
+        }
+        stats.retry(path, nanos);
+        long backoffMillis = calcBackoffMillis(attempt);
+        log.warn("[{}] 请求失败，{}ms后第{}次重试 reason={}", path, backoffMillis, attempt + 1, e.getMessage());
+        try {
+            // 调度线程只负责退避计时，可能阻塞的beforeSend交给retryExecutor
+            retryScheduler.schedule(() -> resend(request, idempotent, attempt + 1, result, e), backoffMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException rejected) {
+            // 客户端已被关闭
+            result.completeExceptionally(e);
+        }
+    }
+
+    private boolean isTooManyRequests(HttpException e) {
+        return e.getCause() == null && e.getMessage().startsWith("HTTP 429 ");
+    }
+
+    /**
+     * 指数退避，退避时间在[0, min(上限, 基数 * 2^attempt)]中随机，避免多个请求同时重试
+     */
+    private long calcBackoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffBaseMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    @Override
+    public void close() {
+        retryScheduler.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+        client.connectionPool().evictAll();
+    }
+
+}
@@ -0,0 +1,126 @@
+package com.spldeolin.allison1875.docanalyzer.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 统计每个请求路径的请求次数、耗时、重试与失败，可以被多个线程同时调用
+ *
+ * 每个请求路径最多保留RESERVOIR_SIZE个耗时样本（蓄水池抽样），p50、p95基于样本计算，请求次数与max是精确的
+ *
+ * @author Deolin 2020-08-18
+ */
+@Log4j2
+public class HttpCallStats {
+
+    private static final int RESERVOIR_SIZE = 1024;
+
+    private final Map<String, PathStats> eachPath = new ConcurrentSkipListMap<>();
+
+    public void success(String path, long nanos) {
+        get(path).successCount.incrementAndGet();
+        get(path).latencies.add(nanos);
+    }
+
+    public void retry(String path, long nanos) {
+        get(path).retryCount.incrementAndGet();
+        get(path).latencies.add(nanos);
+    }
+
+    public void failure(String path, long nanos) {
+        get(path).failureCount.incrementAndGet();
+        get(path).latencies.add(nanos);
+    }
+
+    public long getFailureCount() {
+        return eachPath.values().stream().mapToLong(one -> one.failureCount.get()).sum();
+    }
+
+    /**
+     * 报告每个请求路径的请求次数和耗时，以及总的成功、重试、失败次数
+     *
+     * @param name 统计对象的名称，用于区分同时报告的多份统计
+     */
+    public void report(String name) {
+        long success = 0;
+        long retry = 0;
+        long failure = 0;
+        for (Map.Entry<String, PathStats> entry : eachPath.entrySet()) {
+            PathStats stats = entry.getValue();
+            long count;
+            long max;
+            long[] samples;
+            synchronized (stats.latencies) {
+                count = stats.latencies.count;
+                max = stats.latencies.max;
+                samples = stats.latencies.snapshot();
+            }
+            Arrays.sort(samples);
+            log.info("[{}] [{}] 请求{}次，耗时 p50={}ms p95={}ms max={}ms", name, entry.getKey(), count,
+                    percentile(samples, 50), percentile(samples, 95), max / 1000000);
+            success += stats.successCount.get();
+            retry += stats.retryCount.get();
+            failure += stats.failureCount.get();
+        }
+        log.info("[{}] HTTP请求 成功{}次，重试{}次，失败{}次", name, success, retry, failure);
+    }
+
+    private PathStats get(String path) {
+        return eachPath.computeIfAbsent(path, key -> new PathStats());
+    }
+
+    private long percentile(long[] sortedSamples, int percent) {
+        if (sortedSamples.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sortedSamples.length * percent / 100.0) - 1;
+        return sortedSamples[Math.max(index, 0)] / 1000000;
+    }
+
+    private static class PathStats {
+
+        private final AtomicLong successCount = new AtomicLong();
+
+        private final AtomicLong retryCount = new AtomicLong();
+
+        private final AtomicLong failureCount = new AtomicLong();
+
+        private final LatencyReservoir latencies = new LatencyReservoir();
+
+    }
+
+    /**
+     * 大小固定的耗时样本，样本数超过RESERVOIR_SIZE后，第n个耗时以RESERVOIR_SIZE/n的概率替换已有的样本
+     */
+    private static class LatencyReservoir {
+
+        private final long[] samples = new long[RESERVOIR_SIZE];
+
+        private long count;
+
+        private long max;
+
+        private synchronized void add(long nanos) {
+            if (count < RESERVOIR_SIZE) {
+                samples[(int) count] = nanos;
+            } else {
+                long index = ThreadLocalRandom.current().nextLong(count + 1);
+                if (index < RESERVOIR_SIZE) {
+                    samples[(int) index] = nanos;
+                }
+            }
+            count++;
+            max = Math.max(max, nanos);
+        }
+
+        private synchronized long[] snapshot() {
+            return Arrays.copyOf(samples, (int) Math.min(count, RESERVOIR_SIZE));
+        }
+
+    }
+
+}
@@ -48,9 +48,9 @@ public class HttpUtils {
         log.info("发送GET请求 {}", url);
         try {
             Request request = buildGetRequest(url);
-            Response response = doRequest(request);
-
-            return ensureJsonAndGetBody(response);
+            try (Response response = doRequest(request)) {
+                return ensureJsonAndGetBody(response);
+            }
         } catch (IOException e) {
             log.error("url={}", url, e);
             throw new HttpException(e);
@@ -69,16 +69,17 @@ public class HttpUtils {
         try {
             Request request = buildGetRequest(url);
 
-            Response response = doRequest(request);
-            if (!Strings.nullToEmpty(response.header("Content-Type")).startsWith("image/")) {
-                throw new RuntimeException("this url is not for a image.");
-            }
+            try (Response response = doRequest(request)) {
+                if (!Strings.nullToEmpty(response.header("Content-Type")).startsWith("image/")) {
+                    throw new RuntimeException("this url is not for a image.");
+                }
 
-            ResponseBody body = response.body();
-            if (body == null) {
-                throw new HttpException("image absent.");
+                ResponseBody body = response.body();
+                if (body == null) {
+                    throw new HttpException("image absent.");
+                }
+                return ImageIO.read(body.byteStream());
             }
-            return ImageIO.read(body.byteStream());
         } catch (IOException e) {
             log.error("url={}", url, e);
             throw new HttpException(e);
@@ -94,9 +95,9 @@ public class HttpUtils {
     public static String postJson(String url, String bodyJson) {
         try {
             Request request = buildJsonPostRequest(url, bodyJson);
-            Response response = doRequest(request);
-
-            return ensureJsonAndGetBody(response);
+            try (Response response = doRequest(request)) {
+                return ensureJsonAndGetBody(response);
+            }
         } catch (IOException e) {
             log.error("url={}, bodyJson={}", url, bodyJson, e);
             throw new HttpException(e);
@@ -141,9 +142,9 @@ public class HttpUtils {
 
         try {
             Request request = new Request.Builder().url(url).post(form.build()).build();
-            Response response = doRequest(request);
-
-            return ensureJsonAndGetBody(response);
+            try (Response response = doRequest(request)) {
+                return ensureJsonAndGetBody(response);
+            }
         } catch (IOException e) {
             log.error("url={}, object={}", url, object, e);
             throw new HttpException(e);
@@ -181,22 +182,22 @@ public class HttpUtils {
 
     /**
      * 发送请求，获取response，非200则重试5次，第5次后依然非200则抛出异常
+     *
+     * 非200的response会被关闭，返回的response需要由调用方关闭
      */
     private static Response doRequest(Request request) throws IOException {
         // 发送请求，获取response，非200则重试5次
-        Response response = null;
-        for (int i = 0; i < 5; i++) {
-            response = client.newCall(request).execute();
+        for (int i = 0; ; i++) {
+            Response response = client.newCall(request).execute();
             if (HttpStatus.OK.value() == response.code()) {
-                break;
-            } else {
-                // 5次后依然非200则抛出异常
-                if (i == 5 - 1) {
-                    throw new HttpException(response.message());
-                }
+                return response;
+            }
+            response.close();
+            // 5次后依然非200则抛出异常
+            if (i == 5 - 1) {
+                throw new HttpException(response.message());
             }
         }
-        return response;
     }
 
 }
\ No newline at end of file
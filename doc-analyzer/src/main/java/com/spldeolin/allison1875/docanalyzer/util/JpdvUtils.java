@@ -0,0 +1,126 @@
+package com.spldeolin.allison1875.docanalyzer.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
+import com.google.common.collect.MapMaker;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.spldeolin.allison1875.docanalyzer.dto.JsonPropertyDescriptionValueDto;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * JsonSchema节点与其属性信息（jpdv）的关联
+ *
+ * <pre>
+ * 1. jpdv以JsonSchema对象本身（比较引用而非内容）为key保存，JsonSchema被回收后，关联随之被回收
+ * 2. 生成JsonSchema后由JsgBuildProc关联jpdv，之后jpdv一直以对象的形式传递，只在同步到YApi时转化为文本
+ * 3. 保存分析状态时，jpdv以JSON的形式写入description；读取分析状态时，再从description解析并关联
+ * 4. 处理过ReferenceSchema后，JsonSchema及其jpdv不再被修改，可以被多个endpoint、多个线程共用，
+ *    同步到YApi、保存分析状态时通过initViewObjectMapper注册的序列化方式得到各自的description，而不是修改JsonSchema
+ * </pre>
+ *
+ * 关联后的jpdv可能被多个JsonSchema共用，不应被修改，需要修改时复制一个新的jpdv并重新关联
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+public class JpdvUtils {
+
+    private static final ObjectMapper om = JsonUtils.initObjectMapper(new ObjectMapper());
+
+    private static final Map<JsonSchema, JsonPropertyDescriptionValueDto> jpdvs = new MapMaker().weakKeys()
+            .makeMap();
+
+    private JpdvUtils() {
+        throw new UnsupportedOperationException("Never instantiate me.");
+    }
+
+    /**
+     * @return 没有关联jpdv时返回null
+     */
+    public static JsonPropertyDescriptionValueDto get(JsonSchema jsonSchema) {
+        return jpdvs.get(jsonSchema);
+    }
+
+    public static void put(JsonSchema jsonSchema, JsonPropertyDescriptionValueDto jpdv) {
+        jpdvs.put(jsonSchema, jpdv);
+    }
+
+    /**
+     * 为参数om注册序列化JsonSchema的方式：关联了jpdv的节点，以describer转化jpdv得到的文本作为description，不修改JsonSchema本身
+     *
+     * description仍在原来的位置序列化，与将description写入JsonSchema后再序列化的结果相同
+     */
+    public static ObjectMapper initViewObjectMapper(ObjectMapper om,
+            Function<JsonPropertyDescriptionValueDto, String> describer) {
+        om.registerModule(new SimpleModule().setSerializerModifier(new BeanSerializerModifier() {
+            @Override
+            public List<BeanPropertyWriter> changeProperties(SerializationConfig config, BeanDescription beanDesc,
+                    List<BeanPropertyWriter> beanProperties) {
+                if (!JsonSchema.class.isAssignableFrom(beanDesc.getBeanClass())) {
+                    return beanProperties;
+                }
+                return beanProperties.stream().map(writer -> "description".equals(writer.getName()) ?
+                        new DescriptionWriter(writer, describer) : writer).collect(Collectors.toList());
+            }
+        }));
+        return om;
+    }
+
+    /**
+     * 从每个节点的description中解析jpdv并关联，解析后description被置为null
+     */
+    public static void readFromDescriptions(JsonSchema rootJsonSchema) {
+        readFromDescription(rootJsonSchema);
+        JsonSchemaTraverseUtils.traverse("根节点", rootJsonSchema,
+                (propertyName, jsonSchema, parentJsonSchema) -> readFromDescription(jsonSchema));
+    }
+
+    private static void readFromDescription(JsonSchema jsonSchema) {
+        String description = jsonSchema.getDescription();
+        if (description == null) {
+            return;
+        }
+        try {
+            jpdvs.put(jsonSchema, om.readValue(description, JsonPropertyDescriptionValueDto.class));
+            jsonSchema.setDescription(null);
+        } catch (Exception e) {
+            log.warn("description不是jpdv，保持原样 description={}", description);
+        }
+    }
+
+    private static class DescriptionWriter extends BeanPropertyWriter {
+
+        private static final long serialVersionUID = -2408174418237538164L;
+
+        private final transient Function<JsonPropertyDescriptionValueDto, String> describer;
+
+        private DescriptionWriter(BeanPropertyWriter base,
+                Function<JsonPropertyDescriptionValueDto, String> describer) {
+            super(base);
+            this.describer = describer;
+        }
+
+        @Override
+        public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider prov) throws Exception {
+            JsonPropertyDescriptionValueDto jpdv = jpdvs.get(bean);
+            if (jpdv == null) {
+                super.serializeAsField(bean, gen, prov);
+                return;
+            }
+            gen.writeStringField(getName(), describer.apply(jpdv));
+        }
+
+    }
+
+}
@@ -1,13 +1,14 @@
 package com.spldeolin.allison1875.docanalyzer.util;
 
 import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchemaGenerator;
 import com.fasterxml.jackson.module.jsonSchema.factories.SchemaFactoryWrapper;
 import com.fasterxml.jackson.module.jsonSchema.factories.VisitorContext;
-import com.spldeolin.allison1875.base.exception.DotAbsentInStringException;
+import com.spldeolin.allison1875.base.classloader.TypeNameResolver;
 import com.spldeolin.allison1875.base.util.JsonUtils;
 import com.spldeolin.allison1875.base.util.exception.JsonSchemaException;
 import lombok.extern.log4j.Log4j2;
@@ -39,59 +40,33 @@ public class JsonSchemaGenerateUtils {
         } else {
             jsg = new JsonSchemaGenerator(om);
         }
-
-        TypeFactory tf = TypeFactory.defaultInstance();
-
-        try {
-            return jsg.generateSchema(tf.constructFromCanonical(describe));
-        } catch (Throwable e) {
-            try {
-                // 考虑describe可能是内部类，所以递归地将describe的最后一个.替换成$并重新尝试generateSchema
-                return generateSchemaRecursively(describe, tf, jsg);
-            } catch (DotAbsentInStringException dotAbsent) {
-                // 即便递归到describe中没有.可替换了，依然generateSchema失败，递归尝试失败，说明describe本身就无法处理（无法处理的原因见方法Javadoc）
-                log.warn("Cannot generate the json schema, qualifierForClassLoader={}, reason={}", describe,
-                        e.getMessage());
-                throw new JsonSchemaException(e);
-            }
-        }
+        return generateSchema(describe, jsg);
     }
 
     public static JsonSchema generateSchema(String describe, JsonSchemaGenerator jsg) throws JsonSchemaException {
-        TypeFactory tf = TypeFactory.defaultInstance();
-
+        JavaType javaType = constructType(describe);
         try {
-            return jsg.generateSchema(tf.constructFromCanonical(describe));
+            return jsg.generateSchema(javaType);
         } catch (Throwable e) {
-            try {
-                // 考虑describe可能是内部类，所以递归地将describe的最后一个.替换成$并重新尝试generateSchema
-                return generateSchemaRecursively(describe, tf, jsg);
-            } catch (DotAbsentInStringException dotAbsent) {
-                // 即便递归到describe中没有.可替换了，依然generateSchema失败，递归尝试失败，说明describe本身就无法处理（无法处理的原因见方法Javadoc）
-                log.warn("Cannot generate the json schema, qualifierForClassLoader={}, reason={}", describe,
-                        e.getMessage());
-                throw new JsonSchemaException(e);
-            }
+            log.warn("Cannot generate the json schema, qualifierForClassLoader={}, reason={}", describe,
+                    e.getMessage());
+            throw new JsonSchemaException(e);
         }
     }
 
-    private static JsonSchema generateSchemaRecursively(String innerClassMightDescribe, TypeFactory tf,
-            JsonSchemaGenerator jsg) throws DotAbsentInStringException {
+    /**
+     * 将describe解析为JavaType，describe中源码风格的内部类名由TypeNameResolver转化为二进制名
+     */
+    public static JavaType constructType(String describe) throws JsonSchemaException {
+        TypeFactory tf = TypeFactory.defaultInstance();
+        String binaryDescribe = TypeNameResolver.getInstance().resolveDescribe(describe);
         try {
-            return jsg.generateSchema(tf.constructFromCanonical(innerClassMightDescribe));
+            return tf.constructFromCanonical(binaryDescribe);
         } catch (Throwable e) {
-            innerClassMightDescribe = tryReplaceLastDotToDollar(innerClassMightDescribe);
-            return generateSchemaRecursively(innerClassMightDescribe, tf, jsg);
-        }
-    }
-
-    private static String tryReplaceLastDotToDollar(String innerClassMightDescribe) throws DotAbsentInStringException {
-        int lastDotIndex = innerClassMightDescribe.lastIndexOf('.');
-        if (lastDotIndex == -1) {
-            throw new DotAbsentInStringException();
+            // 类型不存在于classpath中，或是describe本身就无法处理（如通配符泛型）
+            log.warn("Cannot construct the java type, describe={}, reason={}", describe, e.getMessage());
+            throw new JsonSchemaException(e);
         }
-        return innerClassMightDescribe.substring(0, lastDotIndex) + '$' + innerClassMightDescribe
-                .substring(lastDotIndex + 1);
     }
 
 }
@@ -1,17 +1,32 @@
 package com.spldeolin.allison1875.docanalyzer.util;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
-import com.fasterxml.jackson.module.jsonSchema.types.ArraySchema;
 import com.fasterxml.jackson.module.jsonSchema.types.ArraySchema.Items;
+import com.google.common.collect.Lists;
+import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 
 /**
+ * 遍历JsonSchema的每个子节点（不包括根节点）
+ *
+ * <pre>
+ * 1. 以栈代替递归，深度优先、先序地遍历，任意深度的JsonSchema都不会导致StackOverflowError
+ * 2. 一次遍历可以注册多个handler，每个节点依次交给每个handler处理，多个处理过程只需遍历一次
+ * 3. handler可以提前退出，所有handler都退出后遍历随之结束
+ * 4. 调用方可以指定深度上限，超过上限的节点不会被遍历，根节点的子节点深度为1，不指定时不限制深度
+ * </pre>
+ *
  * @author Deolin 2020-08-02
  */
 @Log4j2
 public class JsonSchemaTraverseUtils {
 
+    public static final int UNLIMITED_DEPTH = Integer.MAX_VALUE;
+
     private JsonSchemaTraverseUtils() {
         throw new UnsupportedOperationException("Never instantiate me.");
     }
@@ -22,37 +37,89 @@ public class JsonSchemaTraverseUtils {
 
     }
 
+    public interface StoppableJsonSchemaHandler {
+
+        /**
+         * @return 返回false时，这个handler不再处理之后的节点
+         */
+        boolean handle(String propertyName, JsonSchema jsonSchema, JsonSchema parentJsonSchema, int depth);
+
+    }
+
     public static void traverse(String propName, JsonSchema jsonSchema, EveryJsonSchemaHandler handler) {
+        traverse(propName, jsonSchema, UNLIMITED_DEPTH, (propertyName, child, parent, depth) -> {
+            handler.handle(propertyName, child, parent);
+            return true;
+        });
+    }
+
+    public static void traverse(String propName, JsonSchema jsonSchema, int maxDepth,
+            StoppableJsonSchemaHandler... handlers) {
+        List<StoppableJsonSchemaHandler> activeHandlers = Lists.newArrayList(handlers);
+        Deque<Frame> stack = new ArrayDeque<>();
+        pushChildren(stack, new Frame(propName, jsonSchema, null, 0));
+        boolean depthExceeded = false;
+
+        while (!stack.isEmpty() && !activeHandlers.isEmpty()) {
+            Frame frame = stack.pop();
+            activeHandlers.removeIf(
+                    handler -> !handler.handle(frame.propName, frame.jsonSchema, frame.parentJsonSchema, frame.depth));
+            if (frame.depth < maxDepth) {
+                pushChildren(stack, frame);
+            } else if (!depthExceeded && hasChildren(frame.jsonSchema)) {
+                depthExceeded = true;
+                log.warn("JsonSchema的深度超过了{}，更深的节点不会被遍历 propertyName={}", maxDepth, frame.propName);
+            }
+        }
+    }
+
+    /**
+     * 子节点逆序入栈，使出栈的顺序与声明的顺序一致
+     */
+    private static void pushChildren(Deque<Frame> stack, Frame frame) {
+        JsonSchema jsonSchema = frame.jsonSchema;
+        List<Frame> children = Lists.newArrayList();
         if (jsonSchema.isObjectSchema()) {
             Map<String, JsonSchema> properties = jsonSchema.asObjectSchema().getProperties();
-            properties.forEach((childPropName, childJsonSchema) -> {
-                handler.handle(childPropName, childJsonSchema, jsonSchema);
-                traverse(childPropName, childJsonSchema, handler);
-            });
+            properties.forEach((childPropName, childJsonSchema) -> children
+                    .add(new Frame(childPropName, childJsonSchema, jsonSchema, frame.depth + 1)));
         }
         if (jsonSchema.isArraySchema()) {
-            traverseArray(propName, jsonSchema.asArraySchema(), handler, jsonSchema);
+            Items items = jsonSchema.asArraySchema().getItems();
+            if (items != null && items.isArrayItems()) {
+                // Java没有tuple语法，所以这个情况不可能存在
+                for (JsonSchema tupleElementJsonSchema : items.asArrayItems().getJsonSchemas()) {
+                    children.add(new Frame(frame.propName, tupleElementJsonSchema, jsonSchema, frame.depth + 1));
+                }
+            }
+            if (items != null && items.isSingleItems()) {
+                JsonSchema elementJsonSchema = items.asSingleItems().getSchema();
+                children.add(new Frame(frame.propName, elementJsonSchema, jsonSchema, frame.depth + 1));
+            }
+        }
+        for (Frame child : Lists.reverse(children)) {
+            stack.push(child);
         }
     }
 
-    private static void traverseArray(String propName, ArraySchema arraySchema, EveryJsonSchemaHandler handler,
-            JsonSchema parentJsonSchema) {
-        Items items = arraySchema.getItems();
-        if (items == null) {
-            return;
-        }
-        if (items.isArrayItems()) {
-            // Java没有tuple语法，所以这个情况不可能存在
-            for (JsonSchema tupleElementJsonSchema : items.asArrayItems().getJsonSchemas()) {
-                handler.handle(propName, tupleElementJsonSchema, parentJsonSchema);
-                traverse(propName, tupleElementJsonSchema, handler);
-            }
-        }
-        if (items.isSingleItems()) {
-            JsonSchema elementJsonSchema = items.asSingleItems().getSchema();
-            handler.handle(propName, elementJsonSchema, parentJsonSchema);
-            traverse(propName, elementJsonSchema, handler);
+    private static boolean hasChildren(JsonSchema jsonSchema) {
+        if (jsonSchema.isObjectSchema()) {
+            return !jsonSchema.asObjectSchema().getProperties().isEmpty();
         }
+        return jsonSchema.isArraySchema() && jsonSchema.asArraySchema().getItems() != null;
+    }
+
+    @AllArgsConstructor
+    private static class Frame {
+
+        private final String propName;
+
+        private final JsonSchema jsonSchema;
+
+        private final JsonSchema parentJsonSchema;
+
+        private final int depth;
+
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+package com.spldeolin.allison1875.docanalyzer.util;
+
+import java.util.List;
+import java.util.function.Function;
+import com.google.common.collect.Lists;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 比较 每次构建flexmark、共用flexmark、共用flexmark并缓存、并行批量转换 的Markdown转换耗时
+ *
+ * <pre>
+ * 语料模仿同步YApi时的输入：每个endpoint的描述各不相同，另有大量重复的删除提示
+ * 参数依次是（均可省略）：
+ * 1. endpoint的数量，默认2000
+ * 2. 测量的轮数，默认5（另有1轮预热）
+ * </pre>
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+public class MarkdownBenchmark {
+
+    private static final String DELETE_MESSAGE = "> 该接口已被删除，或是它的URL已被更改，**禁止调用**\n";
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        long perCallNanos = 0;
+        long sharedNanos = 0;
+        long cachedNanos = 0;
+        long parallelNanos = 0;
+        for (int round = 0; round <= rounds; round++) {
+            // 每轮的语料都不同，使缓存只对轮内重复的内容生效
+            List<String> corpus = corpus(size, round);
+            long perCall = measure(corpus, MarkdownBenchmark::convertByNewPipeline);
+            long shared = measure(corpus, MarkdownUtils::render);
+            long cached = measure(corpus, MarkdownUtils::convertToHtml);
+            List<String> parallelCorpus = corpus(size, round + rounds + 1);
+            long start = System.nanoTime();
+            MarkdownUtils.convertToHtml(parallelCorpus);
+            long parallel = System.nanoTime() - start;
+            if (round > 0) {
+                perCallNanos += perCall;
+                sharedNanos += shared;
+                cachedNanos += cached;
+                parallelNanos += parallel;
+            }
+        }
+
+        log.info("语料：{}条Markdown，{}轮", size * 2, rounds);
+        log.info("每次构建flexmark：平均{}ms", perCallNanos / rounds / 1000000);
+        log.info("共用flexmark：平均{}ms", sharedNanos / rounds / 1000000);
+        log.info("共用flexmark并缓存：平均{}ms", cachedNanos / rounds / 1000000);
+        log.info("并行批量转换（缓存未命中）：平均{}ms", parallelNanos / rounds / 1000000);
+        log.info("缓存 {}", MarkdownUtils.getCacheStats());
+    }
+
+    private static long measure(List<String> corpus, Function<String, String> converter) {
+        long start = System.nanoTime();
+        for (String markdown : corpus) {
+            converter.apply(markdown);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 改进前MarkdownUtils.convertToHtml的实现
+     */
+    private static String convertByNewPipeline(String markdown) {
+        MutableDataSet options = new MutableDataSet();
+        Parser parser = Parser.builder(options).build();
+        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
+        return renderer.render(parser.parse(markdown));
+    }
+
+    private static List<String> corpus(int size, int round) {
+        List<String> result = Lists.newArrayListWithCapacity(size * 2);
+        for (int i = 0; i < size; i++) {
+            result.add(String.join("\n", "##### 注释", "第" + round + "轮的接口" + i, "", "用于测量Markdown转换的耗时",
+                    "##### 开发者", "Deolin", "##### 源码", "com.spldeolin.benchmark.BenchmarkController#handler" + i,
+                    "\n---\n", "*该YApi文档由Allison 1875生成*"));
+            result.add(DELETE_MESSAGE);
+        }
+        return result;
+    }
+
+}
@@ -1,22 +1,79 @@
 package com.spldeolin.allison1875.docanalyzer.util;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.vladsch.flexmark.html.HtmlRenderer;
 import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.ast.Node;
 import com.vladsch.flexmark.util.data.MutableDataSet;
 
 /**
+ * Markdown工具类
+ *
+ * <pre>
+ * 1. flexmark的Parser和HtmlRenderer只构建一次，它们是不可变的，可以被多个线程同时使用
+ * 2. 转换结果以Markdown内容的哈希为key缓存，缓存有容量上限，超出时淘汰最近最少使用的结果
+ * 3. 支持并行地转换一批Markdown
+ * </pre>
+ *
  * @author Deolin 2020-08-01
  */
 public class MarkdownUtils {
 
-    public static String convertToHtml(String markdown) {
+    private static final long MAX_CACHED_HTMLS = 4096;
+
+    private static final Parser parser;
+
+    private static final HtmlRenderer renderer;
+
+    /**
+     * 以128位哈希作为key，避免缓存持有较长的Markdown原文
+     */
+    private static final Cache<HashCode, String> htmls = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_HTMLS)
+            .recordStats().build();
+
+    static {
         MutableDataSet options = new MutableDataSet();
-        Parser parser = Parser.builder(options).build();
-        HtmlRenderer renderer = HtmlRenderer.builder(options).build();
-        Node document = parser.parse(markdown);
-        String html = renderer.render(document);
+        parser = Parser.builder(options).build();
+        renderer = HtmlRenderer.builder(options).build();
+    }
+
+    private MarkdownUtils() {
+        throw new UnsupportedOperationException("Never instantiate me.");
+    }
+
+    public static String convertToHtml(String markdown) {
+        HashCode key = Hashing.murmur3_128().hashString(markdown, StandardCharsets.UTF_8);
+        String html = htmls.getIfPresent(key);
+        if (html == null) {
+            html = render(markdown);
+            htmls.put(key, html);
+        }
         return html;
     }
 
-}
\ No newline at end of file
+    /**
+     * 并行地转换一批Markdown，结果与参数的顺序一致
+     */
+    public static List<String> convertToHtml(Collection<String> markdowns) {
+        return markdowns.parallelStream().map(MarkdownUtils::convertToHtml).collect(Collectors.toList());
+    }
+
+    /**
+     * 不经过缓存地转换
+     */
+    public static String render(String markdown) {
+        return renderer.render(parser.parse(markdown));
+    }
+
+    public static CacheStats getCacheStats() {
+        return htmls.stats();
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.spldeolin.allison1875.docanalyzer.util;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * doc-analyzer自身的版本，用于判断增量分析的状态、源码文件信息的缓存是否仍然可用
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+public class ToolVersionUtils {
+
+    private static volatile String toolVersion;
+
+    private ToolVersionUtils() {
+        throw new UnsupportedOperationException("Never instantiate me.");
+    }
+
+    /**
+     * doc-analyzer的版本，以及doc-analyzer所在jar（或classes目录）的最后修改时间，
+     * 没有版本号（e.g.: 在IDE中运行）或是SNAPSHOT版本被重新构建时同样视为变化
+     */
+    public static String getToolVersion() {
+        if (toolVersion == null) {
+            toolVersion = calcToolVersion();
+        }
+        return toolVersion;
+    }
+
+    private static String calcToolVersion() {
+        String version = String.valueOf(ToolVersionUtils.class.getPackage().getImplementationVersion());
+        try {
+            Path codeSource = Paths.get(ToolVersionUtils.class.getProtectionDomain().getCodeSource().getLocation()
+                    .toURI());
+            return version + "@" + Files.getLastModifiedTime(codeSource).toMillis();
+        } catch (Exception e) {
+            log.warn("无法获取doc-analyzer的构建时间", e);
+            return version;
+        }
+    }
+
+}
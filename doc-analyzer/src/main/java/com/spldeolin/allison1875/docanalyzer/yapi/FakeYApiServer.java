@@ -0,0 +1,277 @@
+package com.spldeolin.allison1875.docanalyzer.yapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 进程内的YApi替身，用于在没有YApi的环境中测量同步的吞吐
+ *
+ * <pre>
+ * 1. 支持YApiSyncProc用到的接口：project/get、interface/list_menu、add_cat、interface/get、interface/up、
+ *    interface/save、open/import_data，数据只保存在内存中
+ * 2. 每个请求在响应前等待latencyMillis，并以errorRate的概率返回503，用于模拟网络延迟和服务端故障
+ * 3. 统计每个接口被请求的次数
+ * </pre>
+ *
+ * @author Deolin 2020-08-19
+ */
+@Log4j2
+public class FakeYApiServer implements Closeable {
+
+    private static final long PROJECT_ID = 1L;
+
+    private static final ObjectMapper om = JsonUtils.initObjectMapper(new ObjectMapper());
+
+    private final long latencyMillis;
+
+    private final double errorRate;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Map<String, AtomicLong> requestCounts = Maps.newConcurrentMap();
+
+    private final AtomicLong idGenerator = new AtomicLong(PROJECT_ID);
+
+    /**
+     * 分类ID与分类名
+     */
+    private final Map<Long, String> cats = Maps.newLinkedHashMap();
+
+    /**
+     * 接口ID与接口
+     */
+    private final Map<Long, ObjectNode> interfaces = Maps.newLinkedHashMap();
+
+    /**
+     * @param latencyMillis 每个请求响应前等待的时间
+     * @param errorRate 返回503的概率
+     * @param threads 处理请求的线程数
+     */
+    public FakeYApiServer(long latencyMillis, double errorRate, int threads) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.errorRate = errorRate;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("fake-yapi-%d").setDaemon(true).build());
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handle);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getRequestCount(String path) {
+        AtomicLong count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    public long getTotalRequestCount() {
+        return requestCounts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    public synchronized int getInterfaceCount() {
+        return interfaces.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        requestCounts.computeIfAbsent(path, key -> new AtomicLong()).incrementAndGet();
+        try {
+            if (latencyMillis > 0) {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis);
+            }
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                respond(exchange, 503, "{\"errcode\":503,\"errmsg\":\"injected error\"}");
+                return;
+            }
+
+            Map<String, String> params = parseForm(exchange.getRequestURI().getRawQuery());
+            String body = readBody(exchange.getRequestBody());
+            JsonNode data;
+            switch (path) {
+                case "/api/project/get":
+                    data = JsonNodeFactory.instance.objectNode().put("_id", PROJECT_ID).put("name", "fake");
+                    break;
+                case "/api/interface/list_menu":
+                    data = listMenu();
+                    break;
+                case "/api/interface/add_cat":
+                    data = addCat(parseForm(body).get("name"));
+                    break;
+                case "/api/interface/get":
+                    data = getInterface(Long.parseLong(params.get("id")));
+                    break;
+                case "/api/interface/up":
+                    data = updateInterface((ObjectNode) om.readTree(body));
+                    break;
+                case "/api/interface/save":
+                    data = saveInterface((ObjectNode) om.readTree(body), null);
+                    break;
+                case "/api/open/import_data":
+                    data = importData(om.readTree(parseForm(body).get("json")));
+                    break;
+                default:
+                    respond(exchange, 404, "{\"errcode\":404,\"errmsg\":\"not found\"}");
+                    return;
+            }
+            if (data == null) {
+                respond(exchange, 200, "{\"errcode\":490,\"errmsg\":\"不存在的\"}");
+                return;
+            }
+            ObjectNode resp = JsonNodeFactory.instance.objectNode().put("errcode", 0).put("errmsg", "成功！");
+            resp.set("data", data);
+            respond(exchange, 200, om.writeValueAsString(resp));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "{\"errcode\":503,\"errmsg\":\"interrupted\"}");
+        } catch (Exception e) {
+            log.error("Fake YApi fail. path={}", path, e);
+            respond(exchange, 500, "{\"errcode\":500,\"errmsg\":\"internal error\"}");
+        }
+    }
+
+    private synchronized JsonNode listMenu() {
+        ArrayNode result = JsonNodeFactory.instance.arrayNode();
+        Map<Long, ArrayNode> listEachCat = Maps.newHashMap();
+        cats.forEach((catId, catName) -> {
+            ObjectNode cat = result.addObject().put("_id", catId).put("name", catName);
+            listEachCat.put(catId, cat.putArray("list"));
+        });
+        for (ObjectNode interf : interfaces.values()) {
+            ArrayNode list = listEachCat.get(interf.path("catid").asLong());
+            if (list != null) {
+                ObjectNode brief = list.addObject();
+                for (String field : Lists.newArrayList("_id", "title", "path", "method", "catid", "tag")) {
+                    brief.set(field, interf.get(field));
+                }
+            }
+        }
+        return result;
+    }
+
+    private synchronized JsonNode addCat(String name) {
+        long catId = idGenerator.incrementAndGet();
+        cats.put(catId, name);
+        return JsonNodeFactory.instance.objectNode().put("_id", catId).put("name", name)
+                .put("project_id", PROJECT_ID);
+    }
+
+    private synchronized JsonNode getInterface(long id) {
+        return interfaces.get(id);
+    }
+
+    private synchronized JsonNode updateInterface(ObjectNode form) {
+        ObjectNode interf = interfaces.get(form.path("id").asLong());
+        if (interf == null) {
+            return null;
+        }
+        form.remove("id");
+        form.remove("token");
+        interf.setAll(form);
+        return JsonNodeFactory.instance.objectNode().put("ok", 1).put("nModified", 1);
+    }
+
+    /**
+     * 按path和method新增或覆盖接口
+     */
+    private synchronized JsonNode saveInterface(ObjectNode form, Long catId) {
+        form.remove("token");
+        if (catId != null) {
+            form.put("catid", catId);
+        }
+        for (ObjectNode interf : interfaces.values()) {
+            if (interf.path("path").asText().equals(form.path("path").asText()) && interf.path("method").asText()
+                    .equalsIgnoreCase(form.path("method").asText())) {
+                interf.setAll(form);
+                return JsonNodeFactory.instance.arrayNode().add(interf.deepCopy());
+            }
+        }
+        long id = idGenerator.incrementAndGet();
+        form.put("_id", id);
+        interfaces.put(id, form);
+        return form.deepCopy();
+    }
+
+    private synchronized JsonNode importData(JsonNode document) {
+        int count = 0;
+        for (JsonNode cat : document) {
+            String catName = cat.path("name").asText();
+            Long catId = cats.entrySet().stream().filter(one -> one.getValue().equals(catName)).map(Map.Entry::getKey)
+                    .findFirst().orElseGet(() -> addCat(catName).get("_id").asLong());
+            for (JsonNode interf : cat.path("list")) {
+                saveInterface((ObjectNode) interf, catId);
+                count++;
+            }
+        }
+        return JsonNodeFactory.instance.objectNode().put("imported", count);
+    }
+
+    private static Map<String, String> parseForm(String encoded) throws UnsupportedEncodingException {
+        Map<String, String> result = Maps.newHashMap();
+        if (encoded == null || encoded.isEmpty()) {
+            return result;
+        }
+        for (String pair : encoded.split("&")) {
+            List<String> keyValue = Lists.newArrayList(pair.split("=", 2));
+            String value = keyValue.size() > 1 ? URLDecoder.decode(keyValue.get(1), "UTF-8") : "";
+            result.put(URLDecoder.decode(keyValue.get(0), "UTF-8"), value);
+        }
+        return result;
+    }
+
+    private static String readBody(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, length);
+        }
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+}
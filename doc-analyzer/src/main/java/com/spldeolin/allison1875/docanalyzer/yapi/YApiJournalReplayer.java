@@ -0,0 +1,32 @@
+package com.spldeolin.allison1875.docanalyzer.yapi;
+
+import java.util.Collection;
+import java.util.Collections;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig.YApiTarget;
+import com.spldeolin.allison1875.docanalyzer.processor.YApiSyncProc;
+
+/**
+ * 重放YApi同步日志中未完成的操作，不分析源码
+ *
+ * 日志可以由其他机器在yapiJournalPlanOnly模式下生成，复制到本机的yapiJournalPath后重放，
+ * 需要classpath中存在doc-analyzer-config.yml，且yapiToken与生成日志时的相同
+ *
+ * 参数是yapiTargets中的项目名，省略时重放yapiUrl、yapiToken指定的项目
+ *
+ * @author Deolin 2020-08-20
+ */
+public class YApiJournalReplayer {
+
+    public static void main(String[] args) {
+        YApiTarget target = YApiSyncProc.defaultTarget();
+        if (args.length > 0) {
+            Collection<YApiTarget> targets = DocAnalyzerConfig.getInstance().getYapiTargets();
+            target = (targets == null ? Collections.<YApiTarget>emptyList() : targets).stream()
+                    .filter(one -> args[0].equals(one.getName())).findFirst()
+                    .orElseThrow(() -> new YapiException("yapiTargets中不存在项目 " + args[0]));
+        }
+        new YApiSyncProc(Collections.emptyList(), target).replayJournal();
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.spldeolin.allison1875.docanalyzer.yapi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.spldeolin.allison1875.docanalyzer.dto.YApiMirrorDto;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * YApi项目的本地镜像，包含项目ID、分类、接口
+ *
+ * <pre>
+ * 1. 每次同步只从YApi加载一次，创建分类、保存接口、移动接口成功后，同步地更新镜像
+ * 2. 指定了持久化路径时，同步成功后保存到本地，未超过有效期的镜像可以直接使用，无需请求YApi
+ * </pre>
+ *
+ * 可以被多个线程同时调用
+ *
+ * @author Deolin 2020-08-19
+ */
+@Log4j2
+public class YApiMirror {
+
+    private final String targetFingerprint;
+
+    /**
+     * 为null时不持久化
+     */
+    private final Path persistPath;
+
+    private final long ttlMillis;
+
+    private volatile Long projectId;
+
+    private final Map<String, Long> catIdsEachName = Maps.newConcurrentMap();
+
+    private final Map<String, JsonNode> interfacesEachPath = Maps.newConcurrentMap();
+
+    private volatile boolean loaded;
+
+    public YApiMirror(String yapiUrl, String yapiToken, Path persistPath, long ttlSeconds) {
+        this.targetFingerprint = Hashing.sha256().hashString(yapiUrl + "\n" + yapiToken, StandardCharsets.UTF_8)
+                .toString();
+        this.persistPath = persistPath;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 从本地恢复镜像，镜像不存在、已过期或不属于当前YApi项目时返回false
+     */
+    public boolean restore() {
+        if (persistPath == null || !persistPath.toFile().exists()) {
+            return false;
+        }
+        YApiMirrorDto dto;
+        try {
+            dto = JsonUtils.toObject(new String(Files.readAllBytes(persistPath), StandardCharsets.UTF_8),
+                    YApiMirrorDto.class);
+        } catch (Exception e) {
+            log.warn("Read YApi mirror fail, discard it. path={}", persistPath, e);
+            return false;
+        }
+        if (!targetFingerprint.equals(dto.getTargetFingerprint())) {
+            log.info("本地的YApi镜像不属于当前YApi项目，重新加载");
+            return false;
+        }
+        long age = System.currentTimeMillis() - dto.getSavedAt();
+        if (age > ttlMillis) {
+            log.info("本地的YApi镜像已保存{}s，超过有效期，重新加载", TimeUnit.MILLISECONDS.toSeconds(age));
+            return false;
+        }
+        projectId = dto.getProjectId();
+        catIdsEachName.clear();
+        catIdsEachName.putAll(dto.getCatIdsEachName());
+        interfacesEachPath.clear();
+        interfacesEachPath.putAll(dto.getInterfacesEachPath());
+        loaded = true;
+        log.info("使用本地的YApi镜像，{}个分类，{}个接口", catIdsEachName.size(), interfacesEachPath.size());
+        return true;
+    }
+
+    /**
+     * 以list_menu返回的data重新加载分类和接口
+     */
+    public void reload(JsonNode listMenuData) {
+        Map<String, Long> cats = Maps.newHashMap();
+        Map<String, JsonNode> interfaces = Maps.newHashMap();
+        for (JsonNode cat : listMenuData) {
+            cats.put(cat.get("name").asText(), cat.get("_id").asLong());
+            for (JsonNode interf : cat.path("list")) {
+                interfaces.put(interf.get("path").asText(), interf);
+            }
+        }
+        catIdsEachName.clear();
+        catIdsEachName.putAll(cats);
+        interfacesEachPath.clear();
+        interfacesEachPath.putAll(interfaces);
+        loaded = true;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(Long projectId) {
+        this.projectId = projectId;
+    }
+
+    public Map<String, Long> getCatIdsEachName() {
+        return Collections.unmodifiableMap(catIdsEachName);
+    }
+
+    public Map<String, JsonNode> getInterfacesEachPath() {
+        return Collections.unmodifiableMap(interfacesEachPath);
+    }
+
+    public void putCat(String catName, Long catId) {
+        catIdsEachName.put(catName, catId);
+    }
+
+    /**
+     * 接口被新增、更新或移动后，更新镜像中的接口信息
+     *
+     * @param id 接口ID，为null时沿用镜像中的接口ID
+     */
+    public void putInterface(String path, String method, Long catId, Collection<String> tags, Long id) {
+        ObjectNode interf = JsonNodeFactory.instance.objectNode();
+        JsonNode previous = interfacesEachPath.get(path);
+        if (id != null) {
+            interf.put("_id", id);
+        } else if (previous != null && previous.has("_id")) {
+            interf.set("_id", previous.get("_id"));
+        }
+        interf.put("path", path);
+        interf.put("method", method);
+        interf.put("catid", catId);
+        tags.forEach(interf.putArray("tag")::add);
+        interfacesEachPath.put(path, interf);
+    }
+
+    /**
+     * 保存镜像到本地
+     */
+    public void persist() {
+        if (persistPath == null || !loaded) {
+            return;
+        }
+        YApiMirrorDto dto = new YApiMirrorDto();
+        dto.setTargetFingerprint(targetFingerprint);
+        dto.setSavedAt(System.currentTimeMillis());
+        dto.setProjectId(projectId);
+        dto.setCatIdsEachName(Maps.newHashMap(catIdsEachName));
+        dto.setInterfacesEachPath(Maps.newHashMap(interfacesEachPath));
+        try {
+            Path parent = persistPath.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, persistPath.getFileName().toString(), ".tmp");
+            Files.write(temp, JsonUtils.toJson(dto).getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, persistPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Write YApi mirror fail. path={}", persistPath, e);
+        }
+    }
+
+    /**
+     * 同步失败时，镜像与YApi可能不一致，删除本地的镜像
+     */
+    public void invalidate() {
+        if (persistPath != null && persistPath.toFile().exists() && !persistPath.toFile().delete()) {
+            log.warn("Delete YApi mirror fail. path={}", persistPath);
+        }
+    }
+
+}
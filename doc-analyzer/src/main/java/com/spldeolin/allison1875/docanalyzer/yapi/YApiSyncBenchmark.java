@@ -0,0 +1,125 @@
+package com.spldeolin.allison1875.docanalyzer.yapi;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import com.fasterxml.jackson.module.jsonSchema.types.IntegerSchema;
+import com.fasterxml.jackson.module.jsonSchema.types.ObjectSchema;
+import com.fasterxml.jackson.module.jsonSchema.types.StringSchema;
+import com.google.common.collect.Lists;
+import com.spldeolin.allison1875.docanalyzer.DocAnalyzerConfig;
+import com.spldeolin.allison1875.docanalyzer.dto.EndpointDto;
+import com.spldeolin.allison1875.docanalyzer.dto.JsonPropertyDescriptionValueDto;
+import com.spldeolin.allison1875.docanalyzer.processor.YApiSyncProc;
+import com.spldeolin.allison1875.docanalyzer.util.JpdvUtils;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * 在FakeYApiServer上比较 顺序同步、并发同步、差量同步、批量导入 的耗时与请求数
+ *
+ * <pre>
+ * 参数依次是（均可省略）：
+ * 1. endpoint的数量，逗号分隔，默认100,1000,10000
+ * 2. 每个请求的延迟（毫秒），默认2
+ * 3. 返回503的概率，默认0
+ * 4. 并发同步的并发数，默认16
+ * </pre>
+ *
+ * 与doc-analyzer本身一样，需要classpath中存在doc-analyzer-config.yml，其中YApi相关的配置会被覆盖
+ *
+ * @author Deolin 2020-08-19
+ */
+@Log4j2
+public class YApiSyncBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        List<Integer> sizes = Stream.of((args.length > 0 ? args[0] : "100,1000,10000").split(","))
+                .map(Integer::parseInt).collect(Collectors.toList());
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 2;
+        double errorRate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        int parallelism = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+
+        DocAnalyzerConfig config = DocAnalyzerConfig.getInstance();
+        config.setYapiToken("benchmark");
+        config.setYapiMirrorPath(null);
+        config.setYapiRequestsPerSecond(null);
+
+        for (int size : sizes) {
+            try (FakeYApiServer server = new FakeYApiServer(latencyMillis, errorRate, parallelism * 2)) {
+                run(server, "顺序同步", size, 1, false);
+            }
+            try (FakeYApiServer server = new FakeYApiServer(latencyMillis, errorRate, parallelism * 2)) {
+                run(server, "并发同步", size, parallelism, false);
+                // 再次同步相同的endpoint，所有接口都没有变化
+                run(server, "差量同步", size, parallelism, false);
+            }
+            try (FakeYApiServer server = new FakeYApiServer(latencyMillis, errorRate, parallelism * 2)) {
+                run(server, "批量导入", size, parallelism, true);
+            }
+        }
+    }
+
+    private static void run(FakeYApiServer server, String strategy, int size, int parallelism, boolean bulkImport) {
+        DocAnalyzerConfig config = DocAnalyzerConfig.getInstance();
+        config.setYapiUrl(server.getUrl());
+        config.setYapiSyncParallelism(parallelism);
+        config.setYapiBulkImport(bulkImport);
+
+        Collection<EndpointDto> endpoints = syntheticEndpoints(size);
+        long requestCountBefore = server.getTotalRequestCount();
+        long start = System.currentTimeMillis();
+        try {
+            new YApiSyncProc(endpoints).process();
+        } catch (YapiException e) {
+            log.warn("{} 存在失败的请求 {}", strategy, e.getMessage());
+        }
+        log.info("[{}个endpoint] {}（并发数{}） 耗时{}ms，请求{}次，YApi中有{}个接口", size, strategy, parallelism,
+                System.currentTimeMillis() - start, server.getTotalRequestCount() - requestCountBefore,
+                server.getInterfaceCount());
+    }
+
+    /**
+     * 生成size个endpoint，分布在20个分类中，请求和响应各有几个带描述的属性
+     */
+    private static Collection<EndpointDto> syntheticEndpoints(int size) {
+        List<EndpointDto> result = Lists.newArrayListWithCapacity(size);
+        for (int i = 0; i < size; i++) {
+            EndpointDto endpoint = new EndpointDto();
+            endpoint.setCat("分类" + i % 20);
+            endpoint.setHandlerSimpleName("BenchmarkController_handler" + i);
+            endpoint.setDescriptionLines(Lists.newArrayList("接口" + i, "用于测量同步的吞吐"));
+            endpoint.setUrl("/benchmark/" + i);
+            endpoint.setHttpMethod("post");
+            endpoint.setIsDeprecated(i % 50 == 0);
+            endpoint.setAuthor("Deolin");
+            endpoint.setSourceCode("com.spldeolin.benchmark.BenchmarkController#handler" + i);
+            endpoint.setRequestBodyJsonSchema(syntheticSchema("userName", "age"));
+            endpoint.setResponseBodyJsonSchema(syntheticSchema("userId", "score"));
+            result.add(endpoint);
+        }
+        return result;
+    }
+
+    private static ObjectSchema syntheticSchema(String stringProperty, String integerProperty) {
+        ObjectSchema schema = new ObjectSchema();
+        StringSchema stringSchema = new StringSchema();
+        JpdvUtils.put(stringSchema, syntheticJpdv(stringProperty));
+        schema.putProperty(stringProperty, stringSchema);
+        IntegerSchema integerSchema = new IntegerSchema();
+        JpdvUtils.put(integerSchema, syntheticJpdv(integerProperty));
+        schema.putProperty(integerProperty, integerSchema);
+        return schema;
+    }
+
+    private static JsonPropertyDescriptionValueDto syntheticJpdv(String propertyName) {
+        JsonPropertyDescriptionValueDto jpdv = new JsonPropertyDescriptionValueDto();
+        jpdv.setDescriptionLines(Lists.newArrayList(propertyName + "的描述"));
+        jpdv.setValids(Lists.newArrayList());
+        jpdv.setIsFieldCrossingValids(false);
+        jpdv.setDocIgnore(false);
+        return jpdv;
+    }
+
+}
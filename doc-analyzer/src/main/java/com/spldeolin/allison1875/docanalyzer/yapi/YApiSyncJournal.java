@@ -0,0 +1,200 @@
+package com.spldeolin.allison1875.docanalyzer.yapi;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.spldeolin.allison1875.base.util.JsonUtils;
+import com.spldeolin.allison1875.docanalyzer.dto.YApiJournalEntryDto;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * YApi同步的预写日志，JSON Lines格式
+ *
+ * <pre>
+ * 1. 第一行是日志头，之后是计划的所有操作（创建分类、新增或更新接口、移动接口到回收站），在执行任何操作前写入
+ * 2. 每个操作完成后追加一行完成标记；流式同步时计划为空，每个操作在请求前追加
+ * 3. 同步中断后，下次同步先执行日志中未完成的操作；日志也可以由其他机器生成，在本机重放
+ * 4. 同步成功后删除日志
+ * </pre>
+ *
+ * 进程崩溃时最后一行可能不完整，读取时会被忽略
+ *
+ * @author Deolin 2020-08-20
+ */
+@Log4j2
+public class YApiSyncJournal implements Closeable {
+
+    private final Path path;
+
+    private final String targetFingerprint;
+
+    private BufferedWriter appender;
+
+    /**
+     * @param yapiToken 同一个YApi项目在不同机器上的请求URL可能不同，所以只以TOKEN区分项目
+     */
+    public YApiSyncJournal(Path path, String yapiToken) {
+        this.path = path;
+        this.targetFingerprint = Hashing.sha256().hashString(yapiToken, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * 读取日志中未完成的操作，日志不存在、不属于当前YApi项目、或所有操作都已完成时返回empty
+     */
+    public synchronized Optional<List<YApiJournalEntryDto>> loadUnfinished() {
+        if (!path.toFile().exists()) {
+            return Optional.empty();
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new YapiException("读取YApi同步日志失败 " + e.getMessage());
+        }
+
+        List<YApiJournalEntryDto> operations = Lists.newArrayList();
+        Set<Integer> doneSeqs = Sets.newHashSet();
+        for (int i = 0; i < lines.size(); i++) {
+            YApiJournalEntryDto entry;
+            try {
+                entry = JsonUtils.toObject(lines.get(i), YApiJournalEntryDto.class);
+            } catch (Exception e) {
+                if (i == lines.size() - 1) {
+                    log.warn("YApi同步日志的最后一行不完整，忽略它 line={}", lines.get(i));
+                    break;
+                }
+                throw new YapiException("YApi同步日志的第" + (i + 1) + "行无法解析 " + e.getMessage());
+            }
+            if (i == 0) {
+                if (!YApiJournalEntryDto.TYPE_PLAN.equals(entry.getType())) {
+                    throw new YapiException("YApi同步日志缺少日志头 path=" + path);
+                }
+                if (!targetFingerprint.equals(entry.getTargetFingerprint())) {
+                    log.warn("YApi同步日志不属于当前YApi项目，忽略它 path={}", path);
+                    return Optional.empty();
+                }
+            } else if (YApiJournalEntryDto.TYPE_OPERATION.equals(entry.getType())) {
+                operations.add(entry);
+            } else if (YApiJournalEntryDto.TYPE_DONE.equals(entry.getType())) {
+                doneSeqs.add(entry.getSeq());
+            }
+        }
+
+        List<YApiJournalEntryDto> unfinished = operations.stream().filter(op -> !doneSeqs.contains(op.getSeq()))
+                .collect(Collectors.toList());
+        if (unfinished.isEmpty()) {
+            return Optional.empty();
+        }
+        log.info("YApi同步日志中有{}个未完成的操作（共{}个）", unfinished.size(), operations.size());
+        return Optional.of(unfinished);
+    }
+
+    /**
+     * 以新的计划替换日志，写入磁盘后才返回
+     */
+    public synchronized void writePlan(List<YApiJournalEntryDto> operations) {
+        closeAppender();
+        YApiJournalEntryDto header = new YApiJournalEntryDto();
+        header.setType(YApiJournalEntryDto.TYPE_PLAN);
+        header.setTargetFingerprint(targetFingerprint);
+        header.setCreatedAt(System.currentTimeMillis());
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writeLine(writer, header);
+                for (YApiJournalEntryDto operation : operations) {
+                    writeLine(writer, operation);
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new YapiException("写入YApi同步日志失败 " + e.getMessage());
+        }
+        log.info("YApi同步计划已写入日志，{}个操作 path={}", operations.size(), path);
+    }
+
+    /**
+     * 追加一个计划的操作，写入后才返回
+     */
+    public synchronized void appendOperation(YApiJournalEntryDto operation) {
+        try {
+            append(operation);
+        } catch (IOException e) {
+            throw new YapiException("写入YApi同步日志失败 " + e.getMessage());
+        }
+    }
+
+    /**
+     * 追加操作完成的标记
+     *
+     * 每行写入后flush到操作系统，不逐行fsync；即使丢失了最后几个标记，重新执行这些操作也是幂等的
+     */
+    public synchronized void markDone(Integer seq) {
+        YApiJournalEntryDto done = new YApiJournalEntryDto();
+        done.setType(YApiJournalEntryDto.TYPE_DONE);
+        done.setSeq(seq);
+        try {
+            append(done);
+        } catch (IOException e) {
+            log.warn("Write YApi sync journal fail. seq={}", seq, e);
+        }
+    }
+
+    private void append(YApiJournalEntryDto entry) throws IOException {
+        if (appender == null) {
+            appender = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+        writeLine(appender, entry);
+        appender.flush();
+    }
+
+    /**
+     * 所有操作都已完成，删除日志
+     */
+    public synchronized void complete() {
+        closeAppender();
+        if (path.toFile().exists() && !path.toFile().delete()) {
+            log.warn("Delete YApi sync journal fail. path={}", path);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closeAppender();
+    }
+
+    private void closeAppender() {
+        if (appender != null) {
+            try {
+                appender.close();
+            } catch (IOException e) {
+                log.warn("Close YApi sync journal fail. path={}", path, e);
+            }
+            appender = null;
+        }
+    }
+
+    private static void writeLine(BufferedWriter writer, YApiJournalEntryDto entry) throws IOException {
+        writer.write(JsonUtils.toJson(entry));
+        writer.newLine();
+    }
+
+}